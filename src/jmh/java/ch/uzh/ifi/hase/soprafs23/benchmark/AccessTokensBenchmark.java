@@ -0,0 +1,38 @@
+package ch.uzh.ifi.hase.soprafs23.benchmark;
+
+import ch.uzh.ifi.hase.soprafs23.service.AccessTokens;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of issuing and checking a signed token, compare verify with
+ * UserServiceBenchmark.getUserByToken (lookup of a stored token).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AccessTokensBenchmark {
+
+  private AccessTokens accessTokens;
+  private String token;
+
+  @Setup
+  public void setup() {
+    String secret = Base64.getEncoder().encodeToString(new byte[32]);
+    accessTokens = new AccessTokens(true, 60, "k1:" + secret, false);
+    token = accessTokens.issue(42L);
+  }
+
+  @Benchmark
+  public String issue() {
+    return accessTokens.issue(42L);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Long verify() {
+    return accessTokens.verify(token);
+  }
+}
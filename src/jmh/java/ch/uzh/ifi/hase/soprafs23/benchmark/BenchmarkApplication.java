@@ -0,0 +1,94 @@
+package ch.uzh.ifi.hase.soprafs23.benchmark;
+
+import ch.uzh.ifi.hase.soprafs23.Application;
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Starts the application without a web server against an in-memory H2
+ * database and fills it with a given number of users, so the benchmarks
+ * measure the service layer on a realistic table size.
+ * User i is called "user-i", has the token "token-i" and the password "password".
+ */
+public final class BenchmarkApplication {
+
+  /**
+   * bcrypt hash of "password" with the default users.password.bcrypt-cost of 10,
+   * so logins verify a real hash instead of taking the legacy plaintext path
+   */
+  public static final String PASSWORD_HASH = "$2a$10$cbhcIIfU1zeLQSIqW3zeeOODyZ8Pq5Nln6Zi.mcCOc5whSooKVnJm";
+
+  private static final int CHUNK_SIZE = 10_000;
+
+  private BenchmarkApplication() {
+  }
+
+  public static ConfigurableApplicationContext start(String... properties) {
+    return new SpringApplicationBuilder(Application.class)
+        .web(WebApplicationType.NONE)
+        .properties("logging.level.root=WARN", "spring.jpa.show-sql=false")
+        .properties(properties)
+        .run();
+  }
+
+  /**
+   * starts the application with Tomcat on a random port, see localPort
+   */
+  public static ConfigurableApplicationContext startServer(String... properties) {
+    return new SpringApplicationBuilder(Application.class)
+        .properties("server.port=0", "logging.level.root=WARN", "spring.jpa.show-sql=false")
+        .properties(properties)
+        .run();
+  }
+
+  public static int localPort(ConfigurableApplicationContext context) {
+    return context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+  }
+
+  public static void populate(ConfigurableApplicationContext context, int users) {
+    UserRepository userRepository = context.getBean(UserRepository.class);
+    EntityManager entityManager =
+        SharedEntityManagerCreator.createSharedEntityManager(context.getBean(EntityManagerFactory.class));
+    TransactionTemplate transaction = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+
+    for (int start = 0; start < users; start += CHUNK_SIZE) {
+      int end = Math.min(users, start + CHUNK_SIZE);
+      int from = start;
+      transaction.executeWithoutResult(status -> {
+        List<User> chunk = new ArrayList<>(end - from);
+        for (int i = from; i < end; i++) {
+          chunk.add(newUser(i));
+        }
+        userRepository.saveAll(chunk);
+        userRepository.flush();
+        // keep the persistence context from growing with the table
+        entityManager.clear();
+      });
+    }
+  }
+
+  public static User newUser(int i) {
+    User user = new User();
+    user.setUsername("user-" + i);
+    user.setPassword(PASSWORD_HASH);
+    user.setToken("token-" + i);
+    user.setStatus(i % 2 == 0 ? UserStatus.ONLINE : UserStatus.OFFLINE);
+    user.setCreationDate(Instant.now());
+    user.setBirthday(LocalDate.of(2000, 1, 1).plusDays(i % 10_000));
+    return user;
+  }
+}
@@ -0,0 +1,73 @@
+package ch.uzh.ifi.hase.soprafs23.benchmark;
+
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.LocalUserGetDTO;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs23.rest.mapper.DTOMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion throughput of the MapStruct mappers, run with -prof gc to see
+ * the allocations per mapping. mapUserList converts a page of users like
+ * GET /users does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DTOMapperBenchmark {
+
+  private static final int LIST_SIZE = 1000;
+
+  private User user;
+  private UserPostDTO userPostDTO;
+  private List<User> users;
+
+  @Setup
+  public void setup() {
+    user = BenchmarkApplication.newUser(1);
+    user.setId(1L);
+
+    userPostDTO = new UserPostDTO();
+    userPostDTO.setUsername("user-1");
+    userPostDTO.setPassword("password-1");
+    userPostDTO.setBirthday(LocalDate.of(2000, 1, 1));
+
+    users = new ArrayList<>(LIST_SIZE);
+    for (int i = 0; i < LIST_SIZE; i++) {
+      User listUser = BenchmarkApplication.newUser(i);
+      listUser.setId((long) i);
+      users.add(listUser);
+    }
+  }
+
+  @Benchmark
+  public UserGetDTO convertEntityToUserGetDTO() {
+    return DTOMapper.INSTANCE.convertEntityToUserGetDTO(user);
+  }
+
+  @Benchmark
+  public LocalUserGetDTO convertEntityToLocalUserGetDTO() {
+    return DTOMapper.INSTANCE.convertEntityToLocalUserGetDTO(user);
+  }
+
+  @Benchmark
+  public User convertUserPostDTOtoEntity() {
+    return DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(LIST_SIZE)
+  public List<UserGetDTO> mapUserList() {
+    List<UserGetDTO> userGetDTOs = new ArrayList<>(users.size());
+    for (User listUser : users) {
+      userGetDTOs.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(listUser));
+    }
+    return userGetDTOs;
+  }
+}
@@ -0,0 +1,95 @@
+package ch.uzh.ifi.hase.soprafs23.benchmark;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs23.service.OnlineUsers;
+import ch.uzh.ifi.hase.soprafs23.service.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Presence queries on the bitmap of online users against the status
+ * query on the table, every second user is online (see BenchmarkApplication).
+ * The setup prints the memory used by the bitmap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OnlineUsersBenchmark {
+
+  private static final int FRIENDS = 200;
+
+  @Param({"1000000"})
+  public int users;
+
+  private ConfigurableApplicationContext context;
+  private OnlineUsers onlineUsers;
+  private UserService userService;
+  private UserRepository userRepository;
+  private TransactionTemplate transaction;
+  private List<Long> friendIds;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    context = BenchmarkApplication.start("spring.datasource.url=jdbc:h2:mem:online-" + users);
+    BenchmarkApplication.populate(context, users);
+    onlineUsers = context.getBean(OnlineUsers.class);
+    // the users were inserted after the startup load
+    onlineUsers.load();
+    userService = context.getBean(UserService.class);
+    userRepository = context.getBean(UserRepository.class);
+    transaction = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+    transaction.setReadOnly(true);
+
+    friendIds = new ArrayList<>(FRIENDS);
+    for (int i = 0; i < FRIENDS; i++) {
+      friendIds.add(1L + ThreadLocalRandom.current().nextInt(users));
+    }
+    System.out.printf("%nOnline bitmap: %d of %d users online, %d bytes%n",
+        onlineUsers.count(), users, onlineUsers.getSizeInBytes());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public long countOnline() {
+    return userService.countOnlineUsers();
+  }
+
+  @Benchmark
+  public List<Long> onlineFriends() {
+    return userService.getOnlineUserIds(friendIds);
+  }
+
+  @Benchmark
+  public List<UserGetDTO> onlineUsersPage() {
+    return userService.getUsers(UserStatus.ONLINE, randomUser(), UserService.MAX_PAGE_SIZE);
+  }
+
+  /**
+   * the same page with the status filter in the database
+   */
+  @Benchmark
+  public List<User> onlineUsersPageFromTable() {
+    long after = randomUser();
+    return transaction.execute(tx -> userRepository.findByStatusAndIdGreaterThanOrderByIdAsc(UserStatus.ONLINE,
+        after, PageRequest.of(0, UserService.MAX_PAGE_SIZE)));
+  }
+
+  private long randomUser() {
+    return ThreadLocalRandom.current().nextInt(users);
+  }
+}
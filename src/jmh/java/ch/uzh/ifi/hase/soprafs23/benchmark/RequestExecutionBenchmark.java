@@ -0,0 +1,79 @@
+package ch.uzh.ifi.hase.soprafs23.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of the platform thread pool against the virtual thread mode:
+ * many concurrent clients send blocking requests to a running server.
+ * Both modes use the same connection pool size. The virtual mode needs a
+ * Java 21+ JVM for the benchmark fork:
+ * ./gradlew jmh -PjmhIncludes=RequestExecutionBenchmark -PjmhJvm=/path/to/jdk-21/bin/java
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(512)
+public class RequestExecutionBenchmark {
+
+  @Param({"platform", "virtual"})
+  public String mode;
+
+  @Param({"10000"})
+  public int users;
+
+  private ConfigurableApplicationContext context;
+  private HttpClient client;
+  private String baseUrl;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    if ("virtual".equals(mode) && Runtime.version().feature() < 21) {
+      throw new IllegalStateException("The virtual mode needs a Java 21+ JVM, pass -PjmhJvm=<path to java>");
+    }
+    context = BenchmarkApplication.startServer(
+        "spring.datasource.url=jdbc:h2:mem:requests-" + mode,
+        "spring.datasource.hikari.maximum-pool-size=50",
+        "spring.profiles.active=" + ("virtual".equals(mode) ? "virtual-threads" : "default"));
+    BenchmarkApplication.populate(context, users);
+
+    baseUrl = "http://localhost:" + BenchmarkApplication.localPort(context);
+    client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public int getLocalUser() throws IOException, InterruptedException {
+    String body = "{\"token\": \"token-" + ThreadLocalRandom.current().nextInt(users) + "\"}";
+    return send(HttpRequest.newBuilder(URI.create(baseUrl + "/users/localUser"))
+        .header("Content-Type", "application/json")
+        .POST(HttpRequest.BodyPublishers.ofString(body))
+        .build());
+  }
+
+  @Benchmark
+  public int getUsersPage() throws IOException, InterruptedException {
+    return send(HttpRequest.newBuilder(URI.create(baseUrl + "/users?limit=50&after="
+        + ThreadLocalRandom.current().nextInt(users))).GET().build());
+  }
+
+  private int send(HttpRequest request) throws IOException, InterruptedException {
+    HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+    if (response.statusCode() != 200) {
+      throw new IllegalStateException("Unexpected status " + response.statusCode());
+    }
+    return response.statusCode();
+  }
+}
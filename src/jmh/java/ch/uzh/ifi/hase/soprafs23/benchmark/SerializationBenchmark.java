@@ -0,0 +1,83 @@
+package ch.uzh.ifi.hase.soprafs23.benchmark;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserGetDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Bytes on the wire and serialization cost of the GET /users payload in the
+ * supported formats. The payload size of every format is printed once on
+ * setup, run with -prof gc for the allocations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializationBenchmark {
+
+  @Param({"json", "json-gzip", "cbor", "smile"})
+  public String format;
+
+  @Param({"1000"})
+  public int users;
+
+  private ObjectMapper objectMapper;
+  private boolean gzip;
+  private List<UserGetDTO> payload;
+
+  @Setup
+  public void setup() throws IOException {
+    // configured like Spring Boot's mapper for the HTTP responses
+    Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder.json()
+        .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    switch (format) {
+      case "cbor":
+        objectMapper = builder.factory(new CBORFactory()).build();
+        break;
+      case "smile":
+        objectMapper = builder.factory(new SmileFactory()).build();
+        break;
+      default:
+        objectMapper = builder.build();
+        gzip = format.endsWith("gzip");
+    }
+
+    payload = new ArrayList<>(users);
+    for (int i = 0; i < users; i++) {
+      UserGetDTO user = new UserGetDTO();
+      user.setId((long) i);
+      user.setUsername("user-" + i);
+      user.setBirthday(LocalDate.of(1990, 1, 1).plusDays(i % 10_000));
+      user.setCreationDate(LocalDate.of(2023, 3, 1));
+      user.setStatus(i % 2 == 0 ? UserStatus.ONLINE : UserStatus.OFFLINE);
+      payload.add(user);
+    }
+    System.out.printf("%n%s: %d users -> %d bytes%n", format, users, serializeUsers().length);
+  }
+
+  @Benchmark
+  public byte[] serializeUsers() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+    if (gzip) {
+      try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+        objectMapper.writeValue(out, payload);
+      }
+    }
+    else {
+      objectMapper.writeValue(bytes, payload);
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,121 @@
+package ch.uzh.ifi.hase.soprafs23.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold start: time from launching a new JVM with the application until the
+ * first successful GET /. Every measurement starts its own process.
+ * "jar" is the boot jar as deployed, "lazy" the boot jar with the startup
+ * profile, "cds" the startup layout with profile and class-data-sharing archive.
+ * Build both first, the archive with the JVM that runs this benchmark:
+ * ./gradlew bootJar startupArchive jmh -PjmhIncludes=StartupBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+public class StartupBenchmark {
+
+  private static final Duration START_TIMEOUT = Duration.ofSeconds(60);
+
+  @Param({"jar", "lazy", "cds"})
+  public String mode;
+
+  private File buildDir;
+  private HttpClient client;
+  private Process process;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    buildDir = new File(System.getProperty("benchmark.build.dir", "build"));
+    client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+    for (String path : requiredFiles()) {
+      if (!new File(buildDir, path).isFile()) {
+        throw new IllegalStateException(path + " is missing, run ./gradlew bootJar startupArchive first");
+      }
+    }
+  }
+
+  @TearDown(Level.Iteration)
+  public void stop() throws InterruptedException {
+    if (process != null) {
+      process.destroy();
+      if (!process.waitFor(30, TimeUnit.SECONDS)) {
+        process.destroyForcibly().waitFor();
+      }
+      process = null;
+    }
+  }
+
+  @Benchmark
+  public int timeToFirstRequest() throws IOException, InterruptedException {
+    int port = freePort();
+    List<String> command = new ArrayList<>();
+    command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+    if ("cds".equals(mode)) {
+      command.add("-XX:SharedArchiveFile=startup/application.jsa");
+      command.add("-jar");
+      command.add("startup/application.jar");
+    }
+    else {
+      command.add("-jar");
+      command.add("libs/soprafs23.jar");
+    }
+    if (!"jar".equals(mode)) {
+      command.add("--spring.profiles.active=startup");
+    }
+    command.add("--server.port=" + port);
+    process = new ProcessBuilder(command)
+        .directory(buildDir)
+        .redirectErrorStream(true)
+        .redirectOutput(new File(buildDir, "startup-benchmark.log"))
+        .start();
+
+    HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/"))
+        .timeout(Duration.ofSeconds(5))
+        .build();
+    long deadline = System.nanoTime() + START_TIMEOUT.toNanos();
+    while (System.nanoTime() < deadline) {
+      if (!process.isAlive()) {
+        throw new IllegalStateException("The application exited, see " + buildDir + "/startup-benchmark.log");
+      }
+      try {
+        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() == 200) {
+          return response.statusCode();
+        }
+      }
+      catch (IOException e) {
+        // not listening yet
+      }
+      Thread.sleep(5);
+    }
+    throw new IllegalStateException("No successful GET / within " + START_TIMEOUT);
+  }
+
+  private List<String> requiredFiles() {
+    return "cds".equals(mode)
+        ? Arrays.asList("startup/application.jar", "startup/application.jsa")
+        : Arrays.asList("libs/soprafs23.jar");
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+}
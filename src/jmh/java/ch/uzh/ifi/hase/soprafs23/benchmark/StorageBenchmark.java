@@ -0,0 +1,112 @@
+package ch.uzh.ifi.hase.soprafs23.benchmark;
+
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.service.UserCreationResult;
+import ch.uzh.ifi.hase.soprafs23.service.UserService;
+import org.flywaydb.core.Flyway;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the storage modes: the in-memory H2 default, the file-backed H2
+ * of the h2file profile and PostgreSQL of the postgres profile.
+ * The postgres mode needs a running server (see application-postgres.properties
+ * for the DB_* variables) and a dedicated schema passed explicitly with
+ * -PjmhPostgresSchema=..., only that schema is dropped and migrated again on
+ * setup. Without it the postgres mode fails and the other modes still run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(8)
+public class StorageBenchmark {
+
+  private static final int USERS = 100_000;
+  private static final int BATCH_SIZE = 500;
+
+  @Param({"mem", "h2file", "postgres"})
+  public String storage;
+
+  private final AtomicInteger createdUsers = new AtomicInteger();
+
+  private ConfigurableApplicationContext context;
+  private UserService userService;
+  private Path dataDirectory;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    // cheapest bcrypt cost, the inserts should be dominated by the storage
+    String cost = "users.password.bcrypt-cost=4";
+    switch (storage) {
+      case "h2file":
+        dataDirectory = Files.createTempDirectory("users-benchmark");
+        context = BenchmarkApplication.start(cost, "spring.profiles.active=h2file", "users.storage.path=" + dataDirectory);
+        break;
+      case "postgres":
+        String schema = System.getProperty("benchmark.postgres.schema", "");
+        if (schema.isEmpty() || schema.equalsIgnoreCase("public")) {
+          throw new IllegalStateException("The postgres mode drops its schema, pass a dedicated one with -PjmhPostgresSchema=...");
+        }
+        context = BenchmarkApplication.start(cost, "spring.profiles.active=postgres", "spring.flyway.schemas=" + schema,
+            "spring.datasource.hikari.schema=" + schema, "spring.jpa.properties.hibernate.default_schema=" + schema);
+        break;
+      default:
+        context = BenchmarkApplication.start(cost, "spring.datasource.url=jdbc:h2:mem:benchmark-storage");
+    }
+    // start from an empty schema, a previous run may have left users behind; the postgres
+    // profile disables clean, it is only enabled here for the benchmark schema
+    Flyway flyway = Flyway.configure()
+        .configuration(context.getBean(Flyway.class).getConfiguration())
+        .cleanDisabled(false)
+        .load();
+    flyway.clean();
+    flyway.migrate();
+
+    BenchmarkApplication.populate(context, USERS);
+    userService = context.getBean(UserService.class);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    context.close();
+    if (dataDirectory != null) {
+      try (var files = Files.walk(dataDirectory)) {
+        files.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+      }
+    }
+  }
+
+  @Benchmark
+  public User getUserByToken() {
+    return userService.getUserByToken("token-" + ThreadLocalRandom.current().nextInt(USERS));
+  }
+
+  @Benchmark
+  public User getUserByUsername() {
+    return userService.getUserByUsername("user-" + ThreadLocalRandom.current().nextInt(USERS));
+  }
+
+  /**
+   * exercises the JDBC batching (and reWriteBatchedInserts on PostgreSQL),
+   * one operation = BATCH_SIZE users
+   */
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public List<UserCreationResult> createUsers() {
+    int first = USERS + createdUsers.getAndAdd(BATCH_SIZE);
+    List<User> batch = new ArrayList<>(BATCH_SIZE);
+    for (int i = first; i < first + BATCH_SIZE; i++) {
+      batch.add(BenchmarkApplication.newUser(i));
+    }
+    return userService.createUsers(batch);
+  }
+}
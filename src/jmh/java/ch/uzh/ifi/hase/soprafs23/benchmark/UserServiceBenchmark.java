@@ -0,0 +1,94 @@
+package ch.uzh.ifi.hase.soprafs23.benchmark;
+
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs23.service.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hot paths of the UserService against the embedded H2 database.
+ * Every table size gets a fresh application context and database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserServiceBenchmark {
+
+  @Param({"1000", "100000", "1000000"})
+  public int users;
+
+  private final AtomicLong createdUsers = new AtomicLong();
+
+  private ConfigurableApplicationContext context;
+  private UserService userService;
+  private TransactionTemplate transaction;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    context = BenchmarkApplication.start("spring.datasource.url=jdbc:h2:mem:benchmark-" + users);
+    BenchmarkApplication.populate(context, users);
+    userService = context.getBean(UserService.class);
+    transaction = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public User createUser() throws Exception {
+    User user = BenchmarkApplication.newUser(users + (int) createdUsers.incrementAndGet());
+    return userService.createUser(user);
+  }
+
+  @Benchmark
+  public User getUserByToken() {
+    return userService.getUserByToken("token-" + randomUser());
+  }
+
+  @Benchmark
+  public User getUserByUsername() {
+    return userService.getUserByUsername("user-" + randomUser());
+  }
+
+  /**
+   * authenticate + login in one transaction, like the /login request does
+   * with the persistence context kept open for the whole request
+   */
+  @Benchmark
+  public User login() {
+    int i = randomUser();
+    return transaction.execute(status -> {
+      User user = userService.authenticate("user-" + i, "password");
+      userService.login(user);
+      return user;
+    });
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3)
+  @Measurement(iterations = 5)
+  public List<UserGetDTO> getUsers() {
+    return userService.getUsers();
+  }
+
+  @Benchmark
+  public List<UserGetDTO> getUsersPage() {
+    return userService.getUsers((long) randomUser(), UserService.MAX_PAGE_SIZE);
+  }
+
+  private int randomUser() {
+    return ThreadLocalRandom.current().nextInt(users);
+  }
+}
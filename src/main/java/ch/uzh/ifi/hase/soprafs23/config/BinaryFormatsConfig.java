@@ -0,0 +1,41 @@
+package ch.uzh.ifi.hase.soprafs23.config;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+/**
+ * Binary Formats Config
+ * Besides JSON every endpoint can answer in CBOR (Accept: application/cbor)
+ * or Smile (Accept: application/x-jackson-smile), both more compact and
+ * cheaper to write than JSON. The mappers are created from Spring Boot's
+ * Jackson2ObjectMapperBuilder so dates etc. are written like in the JSON
+ * responses. JSON stays the default.
+ */
+@Configuration
+public class BinaryFormatsConfig implements WebMvcConfigurer {
+
+  private final Jackson2ObjectMapperBuilder objectMapperBuilder;
+
+  public BinaryFormatsConfig(Jackson2ObjectMapperBuilder objectMapperBuilder) {
+    this.objectMapperBuilder = objectMapperBuilder;
+  }
+
+  @Override
+  public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+    // Spring MVC registers both with a plain mapper if the formats are on the classpath, replace them
+    converters.removeIf(converter -> converter instanceof MappingJackson2CborHttpMessageConverter
+        || converter instanceof MappingJackson2SmileHttpMessageConverter);
+    converters.add(new MappingJackson2CborHttpMessageConverter(
+        objectMapperBuilder.createXmlMapper(false).factory(new CBORFactory()).build()));
+    converters.add(new MappingJackson2SmileHttpMessageConverter(
+        objectMapperBuilder.createXmlMapper(false).factory(new SmileFactory()).build()));
+  }
+}
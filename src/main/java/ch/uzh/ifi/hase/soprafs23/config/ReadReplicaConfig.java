@@ -0,0 +1,70 @@
+package ch.uzh.ifi.hase.soprafs23.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.PhysicalConnectionHandlingMode;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.flyway.FlywayDataSource;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+/**
+ * Read Replica Config
+ * Opt-in mode (users.datasource.replica.url) where the read-only transactions
+ * of the UserService are served by a read replica and everything else by the
+ * primary configured with spring.datasource. Both get their own Hikari pool,
+ * the replica pool is tuned with users.datasource.replica.hikari.*.
+ * Flyway only migrates the primary. Reads on a replica may lag behind the
+ * latest writes by the replication delay.
+ */
+@Configuration
+@ConditionalOnProperty(name = "users.datasource.replica.url")
+public class ReadReplicaConfig {
+
+  @Bean
+  @FlywayDataSource
+  @ConfigurationProperties("spring.datasource.hikari")
+  public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+    return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+  }
+
+  @Bean
+  @ConfigurationProperties("users.datasource.replica.hikari")
+  public HikariDataSource replicaDataSource(DataSourceProperties properties, Environment environment) {
+    return DataSourceBuilder.create()
+        .type(HikariDataSource.class)
+        .driverClassName(properties.determineDriverClassName())
+        .url(environment.getRequiredProperty("users.datasource.replica.url"))
+        .username(environment.getProperty("users.datasource.replica.username", properties.determineUsername()))
+        .password(environment.getProperty("users.datasource.replica.password", properties.determinePassword()))
+        .build();
+  }
+
+  @Bean
+  @Primary
+  public DataSource dataSource(@Qualifier("primaryDataSource") DataSource primaryDataSource,
+                               @Qualifier("replicaDataSource") DataSource replicaDataSource) {
+    return new LazyConnectionDataSourceProxy(new TransactionRoutingDataSource(primaryDataSource, replicaDataSource));
+  }
+
+  /**
+   * by default Hibernate keeps the connection for the whole session, which
+   * spans the request (open session in view), so a write after a read in the
+   * same request would end up on the replica
+   */
+  @Bean
+  public HibernatePropertiesCustomizer releaseConnectionAfterTransaction() {
+    return properties -> properties.put(AvailableSettings.CONNECTION_HANDLING,
+        PhysicalConnectionHandlingMode.DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION);
+  }
+}
@@ -0,0 +1,49 @@
+package ch.uzh.ifi.hase.soprafs23.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.stereotype.Component;
+
+/**
+ * Repository Timing Aspect
+ * Times every call on UserRepository, derived queries as well as the
+ * inherited JpaRepository methods, as users.repository.calls tagged with the
+ * method name and whether it threw. Methods returning a Stream are only timed
+ * until the stream is opened.
+ */
+@Aspect
+@Component
+public class RepositoryTimingAspect {
+
+  static final String METRIC_NAME = "users.repository.calls";
+
+  private final MeterRegistry meterRegistry;
+
+  public RepositoryTimingAspect(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  // the repository is a proxy, this() matches all methods it implements for UserRepository
+  @Around("this(ch.uzh.ifi.hase.soprafs23.repository.UserRepository)")
+  public Object time(ProceedingJoinPoint joinPoint) throws Throwable {
+    Timer.Sample sample = Timer.start(meterRegistry);
+    String outcome = "success";
+    try {
+      return joinPoint.proceed();
+    }
+    catch (Throwable t) {
+      outcome = "error";
+      throw t;
+    }
+    finally {
+      sample.stop(Timer.builder(METRIC_NAME)
+          .description("Duration of UserRepository calls")
+          .tag("method", joinPoint.getSignature().getName())
+          .tag("outcome", outcome)
+          .register(meterRegistry));
+    }
+  }
+}
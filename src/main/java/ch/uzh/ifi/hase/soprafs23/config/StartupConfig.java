@@ -0,0 +1,41 @@
+package ch.uzh.ifi.hase.soprafs23.config;
+
+import ch.uzh.ifi.hase.soprafs23.service.ClusterSync;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Method;
+
+/**
+ * Startup Config
+ * The startup profile creates the beans lazily (spring.main.lazy-initialization),
+ * so the server answers before e.g. Hibernate is bootstrapped. Some beans have
+ * to be created on startup anyway: beans with @Scheduled methods would
+ * otherwise never be scheduled, and ClusterSync rejects an invalid
+ * configuration in its constructor.
+ */
+@Configuration
+public class StartupConfig {
+
+  /**
+   * static, it is needed by a bean factory post-processor
+   */
+  @Bean
+  public static LazyInitializationExcludeFilter eagerBeans() {
+    return (beanName, beanDefinition, beanType) -> beanType != null
+        && (ClusterSync.class.isAssignableFrom(beanType) || hasScheduledMethods(beanType));
+  }
+
+  private static boolean hasScheduledMethods(Class<?> beanType) {
+    for (Method method : ReflectionUtils.getUniqueDeclaredMethods(beanType)) {
+      if (AnnotatedElementUtils.hasAnnotation(method, Scheduled.class)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
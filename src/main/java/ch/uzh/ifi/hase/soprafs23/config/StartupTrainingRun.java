@@ -0,0 +1,69 @@
+package ch.uzh.ifi.hase.soprafs23.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Startup Training Run
+ * Started by the startupArchive task (users.startup.training-run=true): once
+ * the application is ready it sends the requests of a typical cold start to
+ * itself and exits, the JVM then writes all classes it loaded into the
+ * class-data-sharing archive used by later starts.
+ */
+@Component
+@ConditionalOnProperty(name = "users.startup.training-run", havingValue = "true")
+public class StartupTrainingRun {
+
+  private static final List<String> PATHS = Arrays.asList("/", "/users", "/users/search?q=a");
+
+  private final Logger log = LoggerFactory.getLogger(StartupTrainingRun.class);
+
+  private final ConfigurableApplicationContext context;
+
+  public StartupTrainingRun(ConfigurableApplicationContext context) {
+    this.context = context;
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void run() {
+    int port = context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+    HttpClient client = HttpClient.newHttpClient();
+    boolean succeeded = true;
+    for (String path : PATHS) {
+      try {
+        HttpResponse<String> response = client.send(
+            HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).build(),
+            HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+          log.error("Training request {} answered {}", path, response.statusCode());
+          succeeded = false;
+        }
+      }
+      catch (IOException e) {
+        log.error("Training request {} failed", path, e);
+        succeeded = false;
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        succeeded = false;
+      }
+    }
+    int exitCode = succeeded ? 0 : 1;
+    log.info("Training run done, exiting with {}", exitCode);
+    System.exit(SpringApplication.exit(context, () -> exitCode));
+  }
+}
@@ -0,0 +1,33 @@
+package ch.uzh.ifi.hase.soprafs23.config;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+/**
+ * Transaction Routing Data Source
+ * Hands out connections of the replica inside read-only transactions and of
+ * the primary otherwise. The decision is made when the connection is
+ * acquired, so it has to be wrapped in a LazyConnectionDataSourceProxy: the
+ * transaction manager asks for the connection before the transaction is
+ * marked read-only.
+ */
+public class TransactionRoutingDataSource extends AbstractRoutingDataSource {
+
+  enum Route {
+    PRIMARY, REPLICA
+  }
+
+  public TransactionRoutingDataSource(DataSource primary, DataSource replica) {
+    setTargetDataSources(Map.of(Route.PRIMARY, primary, Route.REPLICA, replica));
+    setDefaultTargetDataSource(primary);
+    afterPropertiesSet();
+  }
+
+  @Override
+  protected Object determineCurrentLookupKey() {
+    return TransactionSynchronizationManager.isCurrentTransactionReadOnly() ? Route.REPLICA : Route.PRIMARY;
+  }
+}
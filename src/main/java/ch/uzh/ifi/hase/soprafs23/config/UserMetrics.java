@@ -0,0 +1,102 @@
+package ch.uzh.ifi.hase.soprafs23.config;
+
+import ch.uzh.ifi.hase.soprafs23.service.LoginRateLimiter;
+import ch.uzh.ifi.hase.soprafs23.service.OnlineUsers;
+import ch.uzh.ifi.hase.soprafs23.service.PasswordHasher;
+import ch.uzh.ifi.hase.soprafs23.service.PresenceExpiry;
+import ch.uzh.ifi.hase.soprafs23.service.PresenceWriteBehind;
+import ch.uzh.ifi.hase.soprafs23.service.SessionCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User Metrics
+ * Publishes the counters the user components already keep (session cache,
+ * password hashing pool, write-behind presence table, heartbeat sessions,
+ * online bitmap, login rate limiter) as meters. HTTP
+ * latencies, Hibernate statistics, the connection pool and the JVM are
+ * covered by the actuator's own binders, see application.properties.
+ */
+@Component
+public class UserMetrics implements MeterBinder {
+
+  private final SessionCache sessionCache;
+  private final PasswordHasher passwordHasher;
+  private final PresenceWriteBehind presenceWriteBehind;
+  private final PresenceExpiry presenceExpiry;
+  private final OnlineUsers onlineUsers;
+  private final LoginRateLimiter loginRateLimiter;
+
+  public UserMetrics(SessionCache sessionCache, PasswordHasher passwordHasher, PresenceWriteBehind presenceWriteBehind,
+                     PresenceExpiry presenceExpiry, OnlineUsers onlineUsers, LoginRateLimiter loginRateLimiter) {
+    this.sessionCache = sessionCache;
+    this.passwordHasher = passwordHasher;
+    this.presenceWriteBehind = presenceWriteBehind;
+    this.presenceExpiry = presenceExpiry;
+    this.onlineUsers = onlineUsers;
+    this.loginRateLimiter = loginRateLimiter;
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder("users.session.cache.size", sessionCache, SessionCache::size)
+        .description("Cached tokens")
+        .register(registry);
+    FunctionCounter.builder("users.session.cache.requests", sessionCache, SessionCache::getHitCount)
+        .tag("result", "hit")
+        .register(registry);
+    FunctionCounter.builder("users.session.cache.requests", sessionCache, SessionCache::getMissCount)
+        .tag("result", "miss")
+        .register(registry);
+    FunctionCounter.builder("users.session.cache.evictions", sessionCache, SessionCache::getEvictionCount)
+        .register(registry);
+
+    Gauge.builder("users.password.queue.depth", passwordHasher, PasswordHasher::getQueueDepth)
+        .description("Hashing tasks waiting for a pool thread")
+        .register(registry);
+    Gauge.builder("users.password.active", passwordHasher, PasswordHasher::getActiveCount)
+        .register(registry);
+    FunctionCounter.builder("users.password.hashes", passwordHasher, PasswordHasher::getHashCount)
+        .register(registry);
+    FunctionCounter.builder("users.password.hash.time", passwordHasher,
+            hasher -> hasher.getTotalHashTimeNanos() / (double) TimeUnit.SECONDS.toNanos(1))
+        .baseUnit("seconds")
+        .register(registry);
+    FunctionCounter.builder("users.password.rejections", passwordHasher, PasswordHasher::getRejectionCount)
+        .description("Hashing tasks rejected with 503 because the queue was full")
+        .register(registry);
+
+    Gauge.builder("users.presence.pending", presenceWriteBehind, PresenceWriteBehind::getPendingCount)
+        .description("Presence transitions not yet written to the database")
+        .register(registry);
+    Gauge.builder("users.presence.sessions", presenceExpiry, PresenceExpiry::getSessionCount)
+        .description("Online users waiting for their next heartbeat")
+        .register(registry);
+    FunctionCounter.builder("users.presence.expired", presenceExpiry, PresenceExpiry::getExpiredCount)
+        .description("Users set offline after missing heartbeats")
+        .register(registry);
+    Gauge.builder("users.online", onlineUsers, OnlineUsers::count)
+        .description("Users currently online")
+        .register(registry);
+    Gauge.builder("users.online.bitmap", onlineUsers, OnlineUsers::getSizeInBytes)
+        .description("Memory used by the bitmap of online user ids")
+        .baseUnit("bytes")
+        .register(registry);
+
+    FunctionCounter.builder("users.login.rejections", loginRateLimiter, LoginRateLimiter::getAddressRejectionCount)
+        .description("Logins rejected with 429 by the rate limiter")
+        .tag("limit", "address")
+        .register(registry);
+    FunctionCounter.builder("users.login.rejections", loginRateLimiter, LoginRateLimiter::getUsernameRejectionCount)
+        .description("Logins rejected with 429 by the rate limiter")
+        .tag("limit", "username")
+        .register(registry);
+    Gauge.builder("users.login.rate.limit.keys", loginRateLimiter, LoginRateLimiter::getTrackedKeyCount)
+        .register(registry);
+  }
+}
@@ -0,0 +1,62 @@
+package ch.uzh.ifi.hase.soprafs23.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Virtual Thread Config
+ * Opt-in mode (spring.threads.virtual.enabled=true, see the virtual-threads
+ * profile) where Tomcat runs every request, and with it the whole service
+ * layer and its blocking JDBC calls, on its own virtual thread instead of
+ * the bounded platform thread pool. Virtual threads need a Java 21+ runtime.
+ * The project still compiles for Java 17, so the executor is looked up
+ * reflectively. On an older runtime the platform pool is kept and a warning
+ * is logged.
+ */
+@Configuration
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadConfig {
+
+  private final Logger log = LoggerFactory.getLogger(VirtualThreadConfig.class);
+
+  private final ExecutorService virtualThreadExecutor = newVirtualThreadPerTaskExecutor();
+
+  @Bean
+  public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+    return protocolHandler -> {
+      if (virtualThreadExecutor != null) {
+        protocolHandler.setExecutor(virtualThreadExecutor);
+        log.info("Handling requests on virtual threads");
+      }
+    };
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (virtualThreadExecutor != null) {
+      virtualThreadExecutor.shutdown();
+    }
+  }
+
+  private ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    }
+    catch (NoSuchMethodException e) {
+      log.warn("Virtual threads need Java 21+, running on Java {} with the platform thread pool",
+          System.getProperty("java.version"));
+      return null;
+    }
+    catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Could not create the virtual thread executor", e);
+    }
+  }
+}
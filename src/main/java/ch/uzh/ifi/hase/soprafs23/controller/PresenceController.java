@@ -0,0 +1,34 @@
+package ch.uzh.ifi.hase.soprafs23.controller;
+
+import ch.uzh.ifi.hase.soprafs23.service.PresenceBroadcaster;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Presence Controller
+ * Server-sent event stream of user changes, replaces polling GET /users
+ * to learn who is online. See PresenceBroadcaster for the event sequence.
+ */
+@RestController
+public class PresenceController {
+
+  private final PresenceBroadcaster presenceBroadcaster;
+
+  private final long streamTimeoutMillis;
+
+  public PresenceController(PresenceBroadcaster presenceBroadcaster,
+                            @Value("${users.presence.stream-timeout-ms:1800000}") long streamTimeoutMillis) {
+    this.presenceBroadcaster = presenceBroadcaster;
+    this.streamTimeoutMillis = streamTimeoutMillis;
+  }
+
+  @GetMapping(value = "/users/presence", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public SseEmitter streamPresence() {
+    SseEmitter emitter = new SseEmitter(streamTimeoutMillis);
+    presenceBroadcaster.subscribe(emitter);
+    return emitter;
+  }
+}
@@ -3,15 +3,32 @@ package ch.uzh.ifi.hase.soprafs23.controller;
 import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs23.entity.User;
 import ch.uzh.ifi.hase.soprafs23.rest.dto.LocalUserGetDTO;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserBatchResultDTO;
 import ch.uzh.ifi.hase.soprafs23.rest.dto.UserPostDTO;
 import ch.uzh.ifi.hase.soprafs23.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserSearchDTO;
 import ch.uzh.ifi.hase.soprafs23.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs23.service.AccessTokens;
+import ch.uzh.ifi.hase.soprafs23.service.LoginRateLimiter;
+import ch.uzh.ifi.hase.soprafs23.service.UserCreationResult;
 import ch.uzh.ifi.hase.soprafs23.service.UserService;
+import ch.uzh.ifi.hase.soprafs23.service.UsernameIndex;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
-import java.text.ParseException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -25,60 +42,209 @@ import java.util.List;
 @RestController
 public class UserController {
 
+  /**
+   * the body of a response with an ETag depends on these request headers
+   */
+  private static final String[] VARY = {HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING};
+
   private final UserService userService;
 
-  public UserController(UserService userService) {
+  private final ObjectMapper objectMapper;
+
+  private final LoginRateLimiter loginRateLimiter;
+
+  private final AccessTokens accessTokens;
+
+  public UserController(UserService userService, ObjectMapper objectMapper, LoginRateLimiter loginRateLimiter,
+                        AccessTokens accessTokens) {
     this.userService = userService;
+    this.objectMapper = objectMapper;
+    this.loginRateLimiter = loginRateLimiter;
+    this.accessTokens = accessTokens;
   }
 
+  /**
+   * answers 304 without loading any user if the list did not change since the
+   * client received the ETag it sends in If-None-Match
+   */
   @GetMapping("/users")
-  @ResponseStatus(HttpStatus.OK)
   @ResponseBody
-  public List<UserGetDTO> getAllUsers() {
-    // fetch all users in the internal representation
-    List<User> users = userService.getUsers();
-    List<UserGetDTO> userGetDTOs = new ArrayList<>();
-
-    // convert each user to the API representation
-    for (User user : users) {
-      userGetDTOs.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
+  public ResponseEntity<List<UserGetDTO>> getAllUsers(
+          @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+    // taken before the users are read, a change in between only causes one more full response
+    String eTag = eTag(userService.getUsersVersionTag());
+    if (isNotModified(ifNoneMatch, eTag)) {
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).varyBy(VARY).build();//304
     }
-    return userGetDTOs;
+
+    // read directly in the API representation
+    return ResponseEntity.ok().eTag(eTag).varyBy(VARY).body(userService.getUsers());
   }
 
+    /**
+     * keyset pagination: pass the id of the last user of a page as "after" to get
+     * the next one, the Link header points to the next page as long as the page is full
+     */
+    @GetMapping(value = "/users", params = {"limit", "!status"})
+    @ResponseBody
+    public ResponseEntity<List<UserGetDTO>> getUsersPage(@RequestParam int limit,
+                                                         @RequestParam(required = false) Long after) {
+        return withNextLink(userService.getUsers(after, limit), limit);
+    }
+
+    /**
+     * GET /users?status=ONLINE, served from the in-memory bitmap of online users,
+     * paginated like above, pages of MAX_PAGE_SIZE users if no limit is given
+     */
+    @GetMapping(value = "/users", params = "status")
+    @ResponseBody
+    public ResponseEntity<List<UserGetDTO>> getUsersByStatus(@RequestParam UserStatus status,
+                                                             @RequestParam(required = false) Integer limit,
+                                                             @RequestParam(required = false) Long after) {
+        int pageSize = limit == null ? UserService.MAX_PAGE_SIZE : limit;
+        return withNextLink(userService.getUsers(status, after, pageSize), pageSize);
+    }
+
+    @GetMapping("/users/online/count")
+    @ResponseStatus(HttpStatus.OK)//200
+    @ResponseBody
+    public long countOnlineUsers() {
+        return userService.countOnlineUsers();
+    }
+
+    /**
+     * takes a list of user ids (e.g. a friend list) and returns the ones that are online
+     */
+    @PostMapping("/users/online")
+    @ResponseStatus(HttpStatus.OK)//200
+    @ResponseBody
+    public List<Long> getOnlineUserIds(@RequestBody List<Long> userIds) {
+        return userService.getOnlineUserIds(userIds);
+    }
+
+    private ResponseEntity<List<UserGetDTO>> withNextLink(List<UserGetDTO> userGetDTOs, int limit) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (userGetDTOs.size() == limit) {
+            String next = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("after", userGetDTOs.get(userGetDTOs.size() - 1).getId())
+                    .toUriString();
+            response.header(HttpHeaders.LINK, String.format("<%s>; rel=\"next\"", next));
+        }
+        return response.body(userGetDTOs);
+    }
+
+    /**
+     * search-as-you-type: users whose name starts with q (ignoring case),
+     * optionally only those with the given status, ordered by username
+     */
+    @GetMapping("/users/search")
+    @ResponseStatus(HttpStatus.OK)//200
+    @ResponseBody
+    public List<UserSearchDTO> searchUsers(@RequestParam(defaultValue = "") String q,
+                                           @RequestParam(required = false) UserStatus status,
+                                           @RequestParam(defaultValue = "20") int limit) {
+        List<UsernameIndex.Entry> entries = userService.searchUsers(q, status, limit);
+        List<UserSearchDTO> userSearchDTOs = new ArrayList<>(entries.size());
+        for (UsernameIndex.Entry entry : entries) {
+            userSearchDTOs.add(DTOMapper.INSTANCE.convertIndexEntryToUserSearchDTO(entry));
+        }
+        return userSearchDTOs;
+    }
+
+    /**
+     * same JSON array as GET /users, but written incrementally while scrolling
+     * through the table so memory does not depend on the number of users
+     */
+    @GetMapping(value = "/users/stream", produces = MediaType.APPLICATION_JSON_VALUE)
+    public void streamAllUsers(HttpServletResponse response) throws IOException {
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        // let the servlet buffer decide when to send a chunk instead of flushing per user
+        ObjectWriter writer = objectMapper.writerFor(UserGetDTO.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            generator.writeStartArray();
+            userService.streamUsers(user -> {
+                try {
+                    writer.writeValue(generator, DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.writeEndArray();
+        }
+    }
+
   @PostMapping("/users")
   @ResponseStatus(HttpStatus.CREATED)//201
   @ResponseBody
-  public LocalUserGetDTO createUser(@RequestBody UserPostDTO userPostDTO) throws ParseException {
+  public LocalUserGetDTO createUser(@RequestBody UserPostDTO userPostDTO) {
     // convert API user to internal representation
     User userInput = DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
     // create user
     User createdUser = userService.createUser(userInput);
     // convert internal representation of user back to API
-    return DTOMapper.INSTANCE.convertEntityToLocalUserGetDTO(createdUser);
+    return toLocalUserGetDTO(createdUser);
   }
 
-    @GetMapping("/users/{userId}")
+    /**
+     * registers many users at once, the response holds one result per user
+     * in request order (201 with the created user, 400 or 409 with a message)
+     */
+    @PostMapping("/users/batch")
     @ResponseStatus(HttpStatus.OK)//200
     @ResponseBody
-    public UserGetDTO getUser(@PathVariable Long userId) {
-        // search for user
-        if(userService.getUserById(userId).isEmpty()) {
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND,"User not found!");//404
+    public List<UserBatchResultDTO> createUsers(@RequestBody List<UserPostDTO> userPostDTOs) {
+        List<User> userInputs = new ArrayList<>(userPostDTOs.size());
+        for (UserPostDTO userPostDTO : userPostDTOs) {
+            userInputs.add(DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO));
         }
-        User foundUser = userService.getUserById(userId).get();
+
+        List<UserBatchResultDTO> resultDTOs = new ArrayList<>(userInputs.size());
+        for (UserCreationResult result : userService.createUsers(userInputs)) {
+            UserBatchResultDTO resultDTO = new UserBatchResultDTO();
+            resultDTO.setUsername(result.getUsername());
+            resultDTO.setStatus(result.getStatus().value());
+            resultDTO.setMessage(result.getMessage());
+            if (result.isCreated()) {
+                resultDTO.setUser(toLocalUserGetDTO(result.getUser()));
+            }
+            resultDTOs.add(resultDTO);
+        }
+        return resultDTOs;
+    }
+
+    /**
+     * with If-None-Match only the version of the user is read, if it still
+     * matches the answer is 304 without a body
+     */
+    @GetMapping("/users/{userId}")
+    @ResponseBody
+    public ResponseEntity<UserGetDTO> getUser(@PathVariable Long userId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        if (ifNoneMatch != null) {
+            String eTag = eTag(userService.getUserVersionTag(userId)
+                    .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found!")));//404
+            if (isNotModified(ifNoneMatch, eTag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).varyBy(VARY).build();//304
+            }
+        }
+        // search for user
+        User foundUser = userService.getUserById(userId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found!"));//404
         // convert internal representation of user back to API
-        return DTOMapper.INSTANCE.convertEntityToUserGetDTO(foundUser);
+        return ResponseEntity.ok()
+                .eTag(eTag(UserService.versionTag(foundUser)))
+                .varyBy(VARY)
+                .body(DTOMapper.INSTANCE.convertEntityToUserGetDTO(foundUser));
     }
 
     @PutMapping("/users/{userId}")
     @ResponseStatus(HttpStatus.NO_CONTENT)//204
     @ResponseBody
     public void updateUser(@PathVariable Long userId, @RequestBody UserPostDTO userPostDTO) {
-        // search for user
-        if(userService.getUserById(userId).isEmpty()) {
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND,"User not found!");//404
-        }
+        // throws 404 if there is no such user
         userService.update(userId, userPostDTO);
     }
 
@@ -88,7 +254,7 @@ public class UserController {
     @PostMapping("/users/localUser")
     @ResponseBody
     public UserGetDTO getLocalUser(@RequestBody UserPostDTO userPostDTO) {
-        User foundUser = userService.getUserByToken(userPostDTO.getToken());
+        User foundUser = userService.getUserByTokenFromPrimary(userPostDTO.getToken());
         // convert internal representation of user back to API
         if(foundUser==null) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND,"User not found!");
@@ -98,28 +264,20 @@ public class UserController {
 
 
     /**
-     * 1.check the validity of username
-     * 2.check if password matches
-     * 3.make user login
+     * 0.throttle per client address and username (429)
+     * 1.load the user by username and check if password matches
+     * 2.make user login
      */
     @PostMapping("/login")
     @ResponseBody
-    public LocalUserGetDTO login(@RequestBody UserPostDTO userPostDTO) {
-        //match username
-        User userToLogin = DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
-        if(!userService.checkIfUsernameExist(userToLogin)){
-            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid username!");
-        }
-        //match password
-        if(!userService.checkIfPasswordMatch(userToLogin)){
-            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid password!");
-        }
-        //return user
-        User foundUser = userService.getUserByUsername(userPostDTO.getUsername());
+    public LocalUserGetDTO login(@RequestBody UserPostDTO userPostDTO, HttpServletRequest request) {
+        loginRateLimiter.acquire(request.getRemoteAddr(), userPostDTO.getUsername());
+        //match username and password, throws 401 otherwise
+        User foundUser = userService.authenticate(userPostDTO.getUsername(), userPostDTO.getPassword());
         //login
         userService.login(foundUser);
         // convert internal representation of user back to API
-        return DTOMapper.INSTANCE.convertEntityToLocalUserGetDTO(foundUser);
+        return toLocalUserGetDTO(foundUser);
     }
 
 
@@ -131,7 +289,7 @@ public class UserController {
     @ResponseBody
     public void logout(@RequestBody UserPostDTO userPostDTO) {
         //match token
-        User foundUser = userService.getUserByToken(userPostDTO.getToken());
+        User foundUser = userService.getUserByTokenFromPrimary(userPostDTO.getToken());
         // convert internal representation of user back to API
         if(foundUser==null) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND,"User not found!");
@@ -141,4 +299,56 @@ public class UserController {
         }
         userService.logout(foundUser);
     }
-}
+
+    /**
+     * sign of life of a logged in client, needed with users.presence.heartbeat.enabled
+     */
+    @PutMapping("/heartbeat")
+    @ResponseStatus(HttpStatus.NO_CONTENT)//204
+    public void heartbeat(@RequestBody UserPostDTO userPostDTO) {
+        User foundUser = userService.getUserByTokenFromPrimary(userPostDTO.getToken());
+        if (foundUser == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found!");
+        }
+        userService.heartbeat(foundUser);
+    }
+
+    /**
+     * in signed token mode the client gets a freshly signed token instead of the stored one
+     */
+    private LocalUserGetDTO toLocalUserGetDTO(User user) {
+        LocalUserGetDTO localUserGetDTO = DTOMapper.INSTANCE.convertEntityToLocalUserGetDTO(user);
+        if (accessTokens.isSigned()) {
+            localUserGetDTO.setToken(accessTokens.issue(user.getId()));
+        }
+        return localUserGetDTO;
+    }
+
+    /**
+     * weak because JSON, CBOR and Smile, gzipped or not, share one ETag, and
+     * because Tomcat does not compress responses with a strong ETag
+     */
+    private static String eTag(String versionTag) {
+        return "W/\"" + versionTag + "\"";
+    }
+
+    /**
+     * If-None-Match uses the weak comparison and may list several ETags or *
+     */
+    private static boolean isNotModified(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || opaqueTag(candidate).equals(opaqueTag(eTag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String opaqueTag(String eTag) {
+        return eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+    }
+}
\ No newline at end of file
@@ -1,10 +1,17 @@
 package ch.uzh.ifi.hase.soprafs23.entity;
 
 import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
 
 import javax.persistence.*;
 import java.io.Serializable;
-import java.util.Date;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Locale;
 
 /**
  * Internal User Representation
@@ -15,35 +22,74 @@ import java.util.Date;
  * - nullable = false -> this cannot be left empty
  * - unique = true -> this value must be unique across the database -> composes
  * the primary key
+ * Updates only write the changed columns, so e.g. a profile update does not
+ * overwrite a status that was written in the meantime.
+ * The schema and its indexes are defined by the Flyway migrations in
+ * resources/db/migration, Hibernate only validates the mapping against it.
+ * Users are kept in the second-level cache, lookups by id and by username
+ * (the natural id) are answered from there. Every write through Hibernate
+ * invalidates the cached entries, the bulk status update evicts the users it changed.
  */
 @Entity
+@DynamicUpdate
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@NaturalIdCache
 @Table(name = "USER")
 public class User implements Serializable {
 
   private static final long serialVersionUID = 1L;
 
+  /**
+   * ids come from a pooled sequence (one round trip per 50 ids), unlike identity
+   * columns this lets Hibernate send inserts as JDBC batches
+   */
   @Id
-  @GeneratedValue
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_sequence")
+  @SequenceGenerator(name = "user_sequence", sequenceName = "USER_SEQUENCE", allocationSize = 50)
   private Long id;
 
+  @NaturalId(mutable = true)
   @Column(nullable = false, unique = true)
   private String username;
 
+  /**
+   * computed by the database from username, backs case-insensitive lookups with an index
+   */
+  @Column(insertable = false, updatable = false)
+  private String usernameLower;
+
   @Column(nullable = false)
   private String password;
 
   @Column(nullable = false, unique = true)
   private String token;
 
+    /**
+     * a calendar date without time or zone, stored as DATE
+     */
     @Column
-    private Date birthday;
+    private LocalDate birthday;
 
     @Column(nullable = false)
-    private Date creationDate;
+    private Instant creationDate;
 
     @Column(nullable = false)
   private UserStatus status;
 
+  /**
+   * set on login while heartbeats are enabled; later heartbeats are written
+   * with SQL by PresenceExpiry, so a cached user may show an older value
+   */
+  @Column
+  private Instant lastSeen;
+
+  /**
+   * incremented on every write, used for optimistic locking and as ETag of the user
+   */
+  @Version
+  private Long version;
+
   public Long getId() {
     return id;
   }
@@ -58,6 +104,11 @@ public class User implements Serializable {
 
   public void setUsername(String username) {
     this.username = username;
+    this.usernameLower = username == null ? null : username.toLowerCase(Locale.ROOT);
+  }
+
+  public String getUsernameLower() {
+    return usernameLower;
   }
 
   public String getPassword() { return password; }
@@ -71,11 +122,11 @@ public class User implements Serializable {
     this.token = token;
   }
 
-    public Date getBirthday() {
+    public LocalDate getBirthday() {
         return birthday;
     }
 
-    public void setBirthday(Date birthday) {
+    public void setBirthday(LocalDate birthday) {
         this.birthday = birthday;
     }
 
@@ -87,11 +138,27 @@ public class User implements Serializable {
     this.status = status;
   }
 
-    public Date getCreationDate() {
+    public Instant getLastSeen() {
+        return lastSeen;
+    }
+
+    public void setLastSeen(Instant lastSeen) {
+        this.lastSeen = lastSeen;
+    }
+
+    public Instant getCreationDate() {
         return creationDate;
     }
 
-    public void setCreationDate(Date creationDate) {
+    public void setCreationDate(Instant creationDate) {
         this.creationDate = creationDate;
     }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
 }
@@ -0,0 +1,18 @@
+package ch.uzh.ifi.hase.soprafs23.event;
+
+/**
+ * Cluster Event Bus
+ * Carries the UserChangedEvents of one node to all other nodes of a
+ * multi-node deployment. On the receiving nodes an implementation publishes
+ * them again as remote events (UserChangedEvent.isRemote), so the local
+ * caches and indexes can catch up (see ClusterSync).
+ * Delivery is at least once, events may arrive out of order between users.
+ */
+public interface ClusterEventBus {
+
+  /**
+   * called within the transaction of the change, the event must only reach
+   * the other nodes if that transaction commits
+   */
+  void publish(UserChangedEvent event);
+}
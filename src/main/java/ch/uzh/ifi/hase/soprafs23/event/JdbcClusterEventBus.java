@@ -0,0 +1,184 @@
+package ch.uzh.ifi.hase.soprafs23.event;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Jdbc Cluster Event Bus
+ * Uses the shared database as outbox: an event is inserted into USER_EVENT
+ * in the transaction of the change and every node polls the table for rows
+ * of the other nodes.
+ * Ids are handed out on insert but become visible on commit, so a row with a
+ * lower id can show up after a higher one. The cursor therefore only moves
+ * over contiguous ids, a missing id is waited for up to gap-timeout. After
+ * that the cursor moves on and the id is looked up on its own until the
+ * retention time has passed, in case it was not rolled back but commits late.
+ * A new node starts gap-timeout back for the same reason, the events it
+ * receives twice do no harm. Rows are deleted after the retention time, a
+ * node that was not polling for longer misses them.
+ */
+@Component
+@ConditionalOnProperty(name = "users.cluster.enabled", havingValue = "true")
+public class JdbcClusterEventBus implements ClusterEventBus {
+
+  private static final int POLL_BATCH_SIZE = 1000;
+
+  private static final String INSERT_EVENT =
+      "INSERT INTO USER_EVENT (NODE_ID, TYPE, USER_ID, USERNAME, STATUS, CREATED_AT) VALUES (?, ?, ?, ?, ?, ?)";
+  private static final String SELECT_EVENTS =
+      "SELECT ID, NODE_ID, TYPE, USER_ID, USERNAME, STATUS, CREATED_AT FROM USER_EVENT WHERE ID > ? ORDER BY ID LIMIT ?";
+  private static final String SELECT_EVENTS_BY_ID =
+      "SELECT ID, NODE_ID, TYPE, USER_ID, USERNAME, STATUS, CREATED_AT FROM USER_EVENT WHERE ID IN (%s)";
+  private static final String SELECT_MAX_ID = "SELECT COALESCE(MAX(ID), 0) FROM USER_EVENT WHERE CREATED_AT < ?";
+  private static final String DELETE_EVENTS = "DELETE FROM USER_EVENT WHERE CREATED_AT < ?";
+
+  private final Logger log = LoggerFactory.getLogger(JdbcClusterEventBus.class);
+
+  private final RowMapper<Row> rowMapper = (rs, rowNum) -> new Row(rs.getLong("ID"), rs.getString("NODE_ID"),
+      new UserChangedEvent(UserChangedEvent.Type.valueOf(rs.getString("TYPE")), rs.getLong("USER_ID"),
+          rs.getString("USERNAME"), UserStatus.valueOf(rs.getString("STATUS")),
+          rs.getTimestamp("CREATED_AT").toInstant(), true));
+
+  private final JdbcTemplate jdbcTemplate;
+  private final ApplicationEventPublisher eventPublisher;
+  private final String nodeId;
+  private final long gapTimeoutMillis;
+  private final Duration retention;
+
+  /**
+   * ids above the cursor that were already received
+   */
+  private final NavigableSet<Long> received = new TreeSet<>();
+  /**
+   * ids the cursor moved past without a row -> time they were given up
+   */
+  private final NavigableMap<Long, Long> lateIds = new TreeMap<>();
+  private long cursor;
+  private long gapCursor = -1;
+  private long gapSince;
+
+  @Autowired
+  public JdbcClusterEventBus(JdbcTemplate jdbcTemplate, ApplicationEventPublisher eventPublisher,
+                             @Value("${users.cluster.node-id:}") String nodeId,
+                             @Value("${users.cluster.gap-timeout-ms:10000}") long gapTimeoutMillis,
+                             @Value("${users.cluster.retention-minutes:10}") long retentionMinutes) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.eventPublisher = eventPublisher;
+    this.nodeId = nodeId.isEmpty() ? UUID.randomUUID().toString() : nodeId;
+    this.gapTimeoutMillis = gapTimeoutMillis;
+    this.retention = Duration.ofMinutes(retentionMinutes);
+    // older changes are already in the database, the caches of a new node start empty,
+    // but a row below the highest id can still be uncommitted
+    this.cursor = jdbcTemplate.queryForObject(SELECT_MAX_ID, Long.class,
+        Timestamp.from(Instant.now().minusMillis(gapTimeoutMillis)));
+    log.info("Joined the cluster as node {}", this.nodeId);
+  }
+
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  @Override
+  public void publish(UserChangedEvent event) {
+    jdbcTemplate.update(INSERT_EVENT, nodeId, event.getType().name(), event.getUserId(), event.getUsername(),
+        event.getStatus().name(), Timestamp.from(event.getOccurredAt()));
+  }
+
+  @Scheduled(fixedDelayString = "${users.cluster.poll-interval-ms:200}")
+  public synchronized void poll() {
+    List<Row> rows = jdbcTemplate.query(SELECT_EVENTS, rowMapper, cursor, POLL_BATCH_SIZE);
+    for (Row row : rows) {
+      if (received.add(row.id) && !nodeId.equals(row.nodeId)) {
+        eventPublisher.publishEvent(row.event);
+      }
+    }
+    advanceCursor();
+    pollLateIds();
+  }
+
+  @Scheduled(fixedDelayString = "${users.cluster.purge-interval-ms:60000}")
+  public void purge() {
+    int deleted = jdbcTemplate.update(DELETE_EVENTS, Timestamp.from(Instant.now().minus(retention)));
+    log.debug("Purged {} cluster events", deleted);
+  }
+
+  private void advanceCursor() {
+    while (!received.isEmpty()) {
+      if (received.first() == cursor + 1) {
+        cursor = received.pollFirst();
+        continue;
+      }
+      // cursor + 1 is not committed yet or was rolled back
+      long now = System.currentTimeMillis();
+      if (gapCursor != cursor) {
+        gapCursor = cursor;
+        gapSince = now;
+        return;
+      }
+      if (now - gapSince < gapTimeoutMillis) {
+        return;
+      }
+      log.debug("Gave up waiting for cluster events {} to {}", cursor + 1, received.first() - 1);
+      for (long id = Math.max(cursor + 1, received.first() - POLL_BATCH_SIZE); id < received.first(); id++) {
+        lateIds.put(id, now);
+      }
+      cursor = received.first() - 1;
+    }
+  }
+
+  /**
+   * a given up id that shows up within the retention time is delivered after all
+   */
+  private void pollLateIds() {
+    long expired = System.currentTimeMillis() - retention.toMillis();
+    lateIds.values().removeIf(givenUpAt -> givenUpAt < expired);
+    while (lateIds.size() > POLL_BATCH_SIZE) {
+      lateIds.pollFirstEntry();
+    }
+    if (lateIds.isEmpty()) {
+      return;
+    }
+    String placeholders = String.join(", ", Collections.nCopies(lateIds.size(), "?"));
+    List<Row> rows = jdbcTemplate.query(String.format(SELECT_EVENTS_BY_ID, placeholders), rowMapper,
+        lateIds.keySet().toArray());
+    for (Row row : rows) {
+      lateIds.remove(row.id);
+      if (!nodeId.equals(row.nodeId)) {
+        log.debug("Received cluster event {} after its gap timeout", row.id);
+        eventPublisher.publishEvent(row.event);
+      }
+    }
+  }
+
+  private static final class Row {
+    private final long id;
+    private final String nodeId;
+    private final UserChangedEvent event;
+
+    private Row(long id, String nodeId, UserChangedEvent event) {
+      this.id = id;
+      this.nodeId = nodeId;
+      this.event = event;
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package ch.uzh.ifi.hase.soprafs23.event;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+
+import java.time.Instant;
+
+/**
+ * Published by the UserService whenever a user was created, updated or
+ * changed status. It carries the resulting state, not the difference, so
+ * applying the same event twice does no harm.
+ * In the multi-node mode the events of the other nodes are published again
+ * locally as remote events (see ClusterEventBus).
+ */
+public class UserChangedEvent {
+
+  /**
+   * EXPIRED is a change to OFFLINE because the heartbeats stopped (see
+   * PresenceExpiry), unlike a logout it leaves the tokens of the user valid
+   */
+  public enum Type {
+    CREATED, UPDATED, STATUS, EXPIRED
+  }
+
+  private final Type type;
+  private final Long userId;
+  private final String username;
+  private final UserStatus status;
+  private final Instant occurredAt;
+  private final boolean remote;
+
+  public UserChangedEvent(Type type, Long userId, String username, UserStatus status) {
+    this(type, userId, username, status, Instant.now(), false);
+  }
+
+  public UserChangedEvent(Type type, Long userId, String username, UserStatus status, Instant occurredAt,
+                          boolean remote) {
+    this.type = type;
+    this.userId = userId;
+    this.username = username;
+    this.status = status;
+    this.occurredAt = occurredAt;
+    this.remote = remote;
+  }
+
+  public static UserChangedEvent of(Type type, User user) {
+    return new UserChangedEvent(type, user.getId(), user.getUsername(), user.getStatus());
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public Long getUserId() {
+    return userId;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public UserStatus getStatus() {
+    return status;
+  }
+
+  /**
+   * @return when the change was made, by the clock of the node that made it
+   */
+  public Instant getOccurredAt() {
+    return occurredAt;
+  }
+
+  /**
+   * @return true if the change was made on another node
+   */
+  public boolean isRemote() {
+    return remote;
+  }
+}
@@ -1,17 +1,87 @@
 package ch.uzh.ifi.hase.soprafs23.repository;
 
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserGetDTO;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_CACHEABLE;
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
 
 @Repository("userRepository")
-public interface UserRepository extends JpaRepository<User, Long> {
+public interface UserRepository extends JpaRepository<User, Long>, UserRepositoryCustom {
 
+    /**
+     * results are kept in the query cache, which is invalidated by every write to the table
+     */
+    @QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
     User findByToken(String token);
 
     Optional<User> findById(Long id);
 
-  User findByUsername(String username);
+    /**
+     * case-insensitive lookup, the argument has to be lower case already
+     */
+    User findByUsernameLower(String usernameLower);
+
+    /**
+     * set-based uniqueness check, returns the given usernames that are already taken
+     */
+    @Query("select u.username from User u where u.username in :usernames")
+    List<String> findExistingUsernames(@Param("usernames") Collection<String> usernames);
+
+    /**
+     * list read model, selects only the columns of UserGetDTO and creates no managed entities
+     */
+    @Query("select new ch.uzh.ifi.hase.soprafs23.rest.dto.UserGetDTO(u.id, u.username, u.birthday, u.creationDate, u.status)"
+            + " from User u")
+    List<UserGetDTO> findAllUserGetDTOs();
+
+    /**
+     * keyset pagination: the next page starts after the last id of the previous one
+     */
+    @Query("select new ch.uzh.ifi.hase.soprafs23.rest.dto.UserGetDTO(u.id, u.username, u.birthday, u.creationDate, u.status)"
+            + " from User u where u.id > :after order by u.id")
+    List<UserGetDTO> findUserGetDTOsByIdGreaterThan(@Param("after") Long after, Pageable pageable);
+
+    /**
+     * presence listing, keyset paginated like findUserGetDTOsByIdGreaterThan
+     */
+    List<User> findByStatusAndIdGreaterThanOrderByIdAsc(UserStatus status, Long id, Pageable pageable);
+
+    /**
+     * ids only, keyset paginated, fills the OnlineUsers bitmap
+     */
+    @Query("select u.id from User u where u.status = :status and u.id > :after order by u.id")
+    List<Long> findIdsByStatusAndIdGreaterThan(@Param("status") UserStatus status, @Param("after") Long after,
+                                               Pageable pageable);
+
+    /**
+     * list read model for a known set of users, e.g. the online ones
+     */
+    @Query("select new ch.uzh.ifi.hase.soprafs23.rest.dto.UserGetDTO(u.id, u.username, u.birthday, u.creationDate, u.status)"
+            + " from User u where u.id in :ids order by u.id")
+    List<UserGetDTO> findUserGetDTOsByIdIn(@Param("ids") Collection<Long> ids);
+
+    @Query("select u.id as id, u.version as version, u.status as status from User u where u.id = :id")
+    Optional<UserVersion> findVersionById(@Param("id") Long id);
+
+    /**
+     * scrolls over all users, must be consumed inside a transaction
+     */
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "100"), @QueryHint(name = HINT_READONLY, value = "true")})
+    @Query("select u from User u order by u.id")
+    Stream<User> streamAllOrderedById();
 }
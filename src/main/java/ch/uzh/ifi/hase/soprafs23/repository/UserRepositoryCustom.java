@@ -0,0 +1,39 @@
+package ch.uzh.ifi.hase.soprafs23.repository;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * lookups implemented by hand in UserRepositoryCustomImpl
+ */
+public interface UserRepositoryCustom {
+
+  /**
+   * @return the user or null, resolved through the natural id cache when possible
+   * and with a single select otherwise
+   */
+  User findByUsername(String username);
+
+  /**
+   * bulk status change for many users in one statement, evicts only these users
+   * from the second-level cache
+   */
+  int updateStatus(UserStatus status, Collection<Long> ids);
+
+  /**
+   * locks the rows of the given users that are still ONLINE until the end of the transaction
+   *
+   * @return the last seen time (null if unknown) by id of these users
+   */
+  Map<Long, Instant> lockOnlineLastSeen(Collection<Long> ids);
+
+  /**
+   * moves the last seen time of the users forward in one statement, without a
+   * version change or cache eviction
+   */
+  int updateLastSeen(Collection<Long> ids, Instant lastSeen);
+}
@@ -0,0 +1,137 @@
+package ch.uzh.ifi.hase.soprafs23.repository;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import org.hibernate.Session;
+import org.hibernate.cache.spi.access.NaturalIdDataAccess;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.type.InstantType;
+import org.hibernate.type.LongType;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A derived query would always go to the database, the natural id lookup
+ * is answered from the second-level cache when the username is known.
+ * Needs a session that stays open, hence transactional like SimpleJpaRepository.
+ */
+@Transactional(readOnly = true)
+public class UserRepositoryCustomImpl implements UserRepositoryCustom {
+
+  /**
+   * query space of the native presence statements, no entity is mapped to it,
+   * so Hibernate invalidates no cache region when they run
+   */
+  private static final String STATUS_UPDATE_SPACE = "USER_STATUS_UPDATE";
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  @Override
+  public User findByUsername(String username) {
+    if (username == null) {
+      return null;
+    }
+    Session session = entityManager.unwrap(Session.class);
+    if (isResolvedInCache(session, username)) {
+      return session.bySimpleNaturalId(User.class).load(username);
+    }
+    // resolving the natural id and loading the row would be two selects, a query is one;
+    // loading the user puts the username into the natural id cache for the next lookup
+    return session.createQuery("select u from User u where u.username = :username", User.class)
+        .setParameter("username", username)
+        .uniqueResult();
+  }
+
+  private boolean isResolvedInCache(Session session, String username) {
+    SessionImplementor sessionImplementor = session.unwrap(SessionImplementor.class);
+    EntityPersister persister = sessionImplementor.getFactory().getMetamodel().entityPersister(User.class);
+    NaturalIdDataAccess access = persister.getNaturalIdCacheAccessStrategy();
+    Object key = access.generateCacheKey(new Object[]{username}, persister, sessionImplementor);
+    return access.get(sessionImplementor, key) != null;
+  }
+
+  @Override
+  @Transactional
+  public int updateStatus(UserStatus status, Collection<Long> ids) {
+    if (ids.isEmpty()) {
+      return 0;
+    }
+    SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+    NativeQuery<?> update = session.createNativeQuery(
+        "update " + tableName(session) + " set status = :status, version = version + 1 where id in :ids");
+    int updated = update.setParameter("status", status.ordinal())
+        .setParameter("ids", ids)
+        .addSynchronizedQuerySpace(STATUS_UPDATE_SPACE)
+        .executeUpdate();
+
+    // evict only the changed users, again after completion so that no concurrent
+    // transaction puts the old state back in between
+    Cache cache = entityManager.getEntityManagerFactory().getCache();
+    ids.forEach(id -> cache.evict(User.class, id));
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCompletion(int completionStatus) {
+          ids.forEach(id -> cache.evict(User.class, id));
+        }
+      });
+    }
+    return updated;
+  }
+
+  @Override
+  @Transactional
+  @SuppressWarnings("unchecked")
+  public Map<Long, Instant> lockOnlineLastSeen(Collection<Long> ids) {
+    Map<Long, Instant> lastSeen = new HashMap<>();
+    if (ids.isEmpty()) {
+      return lastSeen;
+    }
+    SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+    List<Object[]> rows = session.createNativeQuery(
+            "select id, last_seen from " + tableName(session) + " where id in :ids and status = :status for update")
+        .setParameter("ids", ids)
+        .setParameter("status", UserStatus.ONLINE.ordinal())
+        .addScalar("id", LongType.INSTANCE)
+        .addScalar("last_seen", InstantType.INSTANCE)
+        .addSynchronizedQuerySpace(STATUS_UPDATE_SPACE)
+        .getResultList();
+    rows.forEach(row -> lastSeen.put((Long) row[0], (Instant) row[1]));
+    return lastSeen;
+  }
+
+  @Override
+  @Transactional
+  public int updateLastSeen(Collection<Long> ids, Instant lastSeen) {
+    if (ids.isEmpty()) {
+      return 0;
+    }
+    SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+    // only forward, an instance that flushes late must not move it back
+    return session.createNativeQuery("update " + tableName(session)
+            + " set last_seen = :lastSeen where id in :ids and (last_seen is null or last_seen < :lastSeen)")
+        .setParameter("lastSeen", lastSeen)
+        .setParameter("ids", ids)
+        .addSynchronizedQuerySpace(STATUS_UPDATE_SPACE)
+        .executeUpdate();
+  }
+
+  private static String tableName(SessionImplementor session) {
+    return ((AbstractEntityPersister) session.getFactory().getMetamodel().entityPersister(User.class))
+        .getTableName();
+  }
+}
@@ -0,0 +1,15 @@
+package ch.uzh.ifi.hase.soprafs23.repository;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+
+/**
+ * the columns that make up the ETag of a single user
+ */
+public interface UserVersion {
+
+  Long getId();
+
+  Long getVersion();
+
+  UserStatus getStatus();
+}
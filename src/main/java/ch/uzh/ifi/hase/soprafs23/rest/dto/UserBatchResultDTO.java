@@ -0,0 +1,44 @@
+package ch.uzh.ifi.hase.soprafs23.rest.dto;
+
+/**
+ * one entry per user of a batch registration, user is only set if it was created
+ */
+public class UserBatchResultDTO {
+
+    private String username;
+    private int status;
+    private String message;
+    private LocalUserGetDTO user;
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public LocalUserGetDTO getUser() {
+        return user;
+    }
+
+    public void setUser(LocalUserGetDTO user) {
+        this.user = user;
+    }
+}
@@ -2,7 +2,9 @@ package ch.uzh.ifi.hase.soprafs23.rest.dto;
 
 import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
 
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneOffset;
 
 public class UserGetDTO {
 
@@ -13,6 +15,20 @@ public class UserGetDTO {
   private LocalDate creationDate;
   private UserStatus status;
 
+  public UserGetDTO() {
+  }
+
+  /**
+   * used by the projection queries in UserRepository, the creation day is taken in UTC like in the DTOMapper
+   */
+  public UserGetDTO(Long id, String username, LocalDate birthday, Instant creationDate, UserStatus status) {
+    this.id = id;
+    this.username = username;
+    this.birthday = birthday;
+    this.creationDate = creationDate == null ? null : LocalDate.ofInstant(creationDate, ZoneOffset.UTC);
+    this.status = status;
+  }
+
   public Long getId() {
     return id;
   }
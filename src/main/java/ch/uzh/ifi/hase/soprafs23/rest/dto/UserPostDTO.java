@@ -1,6 +1,6 @@
 package ch.uzh.ifi.hase.soprafs23.rest.dto;
 
-import java.util.Date;
+import java.time.LocalDate;
 
 public class UserPostDTO {
 
@@ -8,7 +8,7 @@ public class UserPostDTO {
 
   private String password;
 
-  private Date birthday;
+  private LocalDate birthday;
   private String token;
   private String username;
 
@@ -36,11 +36,11 @@ public class UserPostDTO {
         this.id = id;
     }
 
-    public Date getBirthday() {
+    public LocalDate getBirthday() {
         return birthday;
     }
 
-    public void setBirthday(Date birthday) {
+    public void setBirthday(LocalDate birthday) {
         this.birthday = birthday;
     }
 
@@ -4,9 +4,15 @@ import ch.uzh.ifi.hase.soprafs23.entity.User;
 import ch.uzh.ifi.hase.soprafs23.rest.dto.LocalUserGetDTO;
 import ch.uzh.ifi.hase.soprafs23.rest.dto.UserGetDTO;
 import ch.uzh.ifi.hase.soprafs23.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserSearchDTO;
+import ch.uzh.ifi.hase.soprafs23.service.UsernameIndex;
 import org.mapstruct.*;
 import org.mapstruct.factory.Mappers;
 
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+
 /**
  * DTOMapper
  * This class is responsible for generating classes that will automatically
@@ -27,6 +33,8 @@ public interface DTOMapper {
   @Mapping(source = "username", target = "username")
   @Mapping(target = "status", ignore = true)
   @Mapping(target = "creationDate", ignore = true)
+  @Mapping(target = "version", ignore = true)
+  @Mapping(target = "lastSeen", ignore = true)
   User convertUserPostDTOtoEntity(UserPostDTO userPostDTO);
 
   @Mapping(source = "id", target = "id")
@@ -41,10 +49,22 @@ public interface DTOMapper {
      */
     @Mapping(source = "id", target = "id")
     @Mapping(source = "username", target = "username")
-    @Mapping(source = "birthday", target = "birthday",dateFormat = "yyyy-MM-dd")
-    @Mapping(source = "creationDate", target = "creationDate",dateFormat = "yyyy-MM-dd")
+    @Mapping(source = "birthday", target = "birthday")
+    @Mapping(source = "creationDate", target = "creationDate")
     @Mapping(source = "status", target = "status")
     @Mapping(source = "token", target = "token")
     LocalUserGetDTO convertEntityToLocalUserGetDTO(User user);
 
+    @Mapping(source = "id", target = "id")
+    @Mapping(source = "username", target = "username")
+    @Mapping(source = "status", target = "status")
+    UserSearchDTO convertIndexEntryToUserSearchDTO(UsernameIndex.Entry entry);
+
+    /**
+     * the API shows the creation day, taken in UTC so it does not depend on the server's zone
+     */
+    default LocalDate toLocalDate(Instant instant) {
+        return instant == null ? null : LocalDate.ofInstant(instant, ZoneOffset.UTC);
+    }
+
 }
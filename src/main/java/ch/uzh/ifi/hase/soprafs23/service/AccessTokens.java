@@ -0,0 +1,230 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.event.UserChangedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Access Tokens
+ * Optional mode (users.token.signed) where the token handed out on
+ * registration and login is signed instead of looked up: it carries the user
+ * id, issue and expiry time and an HMAC-SHA256 over them, so checking it needs
+ * no database access.
+ * Format: keyId.base64url(userId | issuedAt | expiresAt | mac)
+ * The first configured key signs, all configured keys are accepted, so a key
+ * can be rotated by putting the new one in front and removing the old one
+ * after the token lifetime.
+ * A logout revokes all tokens the user got before, the revocation is kept
+ * until those tokens expired anyway. Tokens are issued after the latest
+ * revocation of the user, so a login in the same millisecond as the logout
+ * still gets a valid token. In the multi-node mode the logouts of the other
+ * nodes arrive as remote events, revocations from before a (re)start are
+ * loaded by the TokenRevocationStore.
+ */
+@Component
+public class AccessTokens {
+
+  private static final String ALGORITHM = "HmacSHA256";
+  private static final int PAYLOAD_LENGTH = 3 * Long.BYTES;
+  private static final int MAC_LENGTH = 32;
+  private static final int MIN_SECRET_LENGTH = 32;
+
+  private final Logger log = LoggerFactory.getLogger(AccessTokens.class);
+
+  private final boolean signed;
+  private final long ttlMillis;
+  private final LongSupplier clock;
+  private final String signingKeyId;
+  private final Map<String, SecretKeySpec> keys;
+
+  /**
+   * user id -> tokens issued before this time are revoked
+   */
+  private final Map<Long, Long> revokedBefore = new ConcurrentHashMap<>();
+
+  /**
+   * Mac instances are not thread-safe, every thread keeps its own per key
+   */
+  private final ThreadLocal<Map<String, Mac>> macs = ThreadLocal.withInitial(HashMap::new);
+
+  @Autowired
+  public AccessTokens(@Value("${users.token.signed:false}") boolean signed,
+                      @Value("${users.token.ttl-minutes:60}") long ttlMinutes,
+                      @Value("${users.token.keys:}") String keys,
+                      @Value("${users.cluster.enabled:false}") boolean clustered) {
+    this(signed, TimeUnit.MINUTES.toMillis(ttlMinutes), parseKeys(signed, keys, clustered), System::currentTimeMillis);
+  }
+
+  AccessTokens(boolean signed, long ttlMillis, Map<String, byte[]> keys, LongSupplier clock) {
+    this.signed = signed;
+    this.ttlMillis = ttlMillis;
+    this.clock = clock;
+    this.keys = new LinkedHashMap<>();
+    keys.forEach((keyId, secret) -> this.keys.put(keyId, new SecretKeySpec(secret, ALGORITHM)));
+    if (signed && this.keys.isEmpty()) {
+      byte[] secret = new byte[MIN_SECRET_LENGTH];
+      new SecureRandom().nextBytes(secret);
+      this.keys.put("local", new SecretKeySpec(secret, ALGORITHM));
+      log.warn("No users.token.keys configured, the tokens become invalid on restart");
+    }
+    this.signingKeyId = this.keys.isEmpty() ? null : this.keys.keySet().iterator().next();
+  }
+
+  public boolean isSigned() {
+    return signed;
+  }
+
+  public String issue(Long userId) {
+    long now = clock.getAsLong();
+    long issuedAt = Math.max(now, revokedBefore.getOrDefault(userId, now));
+    ByteBuffer token = ByteBuffer.allocate(PAYLOAD_LENGTH + MAC_LENGTH);
+    token.putLong(userId).putLong(issuedAt).putLong(issuedAt + ttlMillis);
+    token.put(mac(signingKeyId, token.array()));
+    return signingKeyId + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(token.array());
+  }
+
+  /**
+   * @return the id of the user the token was issued to, null if the token is
+   *         malformed, not signed by a known key, expired or revoked
+   */
+  public Long verify(String token) {
+    if (token == null) {
+      return null;
+    }
+    int separator = token.indexOf('.');
+    if (separator < 0 || !keys.containsKey(token.substring(0, separator))) {
+      return null;
+    }
+    byte[] decoded;
+    try {
+      decoded = Base64.getUrlDecoder().decode(token.substring(separator + 1));
+    }
+    catch (IllegalArgumentException e) {
+      return null;
+    }
+    if (decoded.length != PAYLOAD_LENGTH + MAC_LENGTH) {
+      return null;
+    }
+    byte[] expectedMac = mac(token.substring(0, separator), decoded);
+    if (!MessageDigest.isEqual(expectedMac, Arrays.copyOfRange(decoded, PAYLOAD_LENGTH, decoded.length))) {
+      return null;
+    }
+
+    ByteBuffer payload = ByteBuffer.wrap(decoded);
+    long userId = payload.getLong();
+    long issuedAt = payload.getLong();
+    long expiresAt = payload.getLong();
+    if (expiresAt <= clock.getAsLong()) {
+      return null;
+    }
+    Long revoked = revokedBefore.get(userId);
+    if (revoked != null && issuedAt < revoked) {
+      return null;
+    }
+    return userId;
+  }
+
+  /**
+   * revokes the tokens issued up to and including epochMillis
+   */
+  public void revokeIssuedUntil(Long userId, long epochMillis) {
+    revokedBefore.merge(userId, epochMillis + 1, Math::max);
+  }
+
+  public int getRevocationCount() {
+    return revokedBefore.size();
+  }
+
+  public long getTtlMillis() {
+    return ttlMillis;
+  }
+
+  /**
+   * a logout revokes the tokens, a heartbeat expiry (Type.EXPIRED) does not so the client can come back
+   */
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onUserChanged(UserChangedEvent event) {
+    if (signed && event.getType() == UserChangedEvent.Type.STATUS && event.getStatus() == UserStatus.OFFLINE) {
+      revokeIssuedUntil(event.getUserId(), event.getOccurredAt().toEpochMilli());
+    }
+  }
+
+  /**
+   * a revocation is only needed as long as a token issued before it can still be valid
+   */
+  @Scheduled(fixedDelayString = "${users.token.purge-interval-ms:60000}")
+  public void purgeRevocations() {
+    long expiredBefore = clock.getAsLong() - ttlMillis;
+    revokedBefore.values().removeIf(revoked -> revoked <= expiredBefore);
+  }
+
+  /**
+   * only the MAC over the payload, the first PAYLOAD_LENGTH bytes of the token
+   */
+  private byte[] mac(String keyId, byte[] token) {
+    Mac mac = macs.get().computeIfAbsent(keyId, this::newMac);
+    mac.update(token, 0, PAYLOAD_LENGTH);
+    return mac.doFinal();
+  }
+
+  private Mac newMac(String keyId) {
+    try {
+      Mac mac = Mac.getInstance(ALGORITHM);
+      mac.init(keys.get(keyId));
+      return mac;
+    }
+    catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Cannot create " + ALGORITHM, e);
+    }
+  }
+
+  /**
+   * @param keys keyId:base64Secret pairs separated by commas
+   */
+  private static Map<String, byte[]> parseKeys(boolean signed, String keys, boolean clustered) {
+    Map<String, byte[]> parsed = new LinkedHashMap<>();
+    if (!signed) {
+      return parsed;
+    }
+    for (String key : keys.split(",")) {
+      if (key.isBlank()) {
+        continue;
+      }
+      String[] parts = key.trim().split(":", 2);
+      if (parts.length != 2 || parts[0].isEmpty() || parts[0].contains(".")) {
+        throw new IllegalStateException("users.token.keys must be keyId:base64Secret pairs");
+      }
+      byte[] secret = Base64.getDecoder().decode(parts[1]);
+      if (secret.length < MIN_SECRET_LENGTH) {
+        throw new IllegalStateException("The secret of token key " + parts[0] + " is shorter than "
+            + MIN_SECRET_LENGTH + " bytes");
+      }
+      parsed.put(parts[0], secret);
+    }
+    if (parsed.isEmpty() && clustered) {
+      throw new IllegalStateException("users.token.keys must be set, all nodes have to verify the same tokens");
+    }
+    return parsed;
+  }
+}
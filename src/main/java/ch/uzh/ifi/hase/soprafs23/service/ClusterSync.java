@@ -0,0 +1,64 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.event.ClusterEventBus;
+import ch.uzh.ifi.hase.soprafs23.event.UserChangedEvent;
+import org.hibernate.SessionFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Cluster Sync
+ * Multi-node mode (users.cluster.enabled): all nodes share one database, the
+ * node-local state is kept in sync through the ClusterEventBus.
+ * Local changes are handed to the bus, changes of other nodes evict the user
+ * from the second-level cache. The UsernameIndex and the PresenceBroadcaster
+ * apply remote events like local ones. The SessionCache needs nothing, every
+ * hit is checked against the (reloaded) user.
+ * The presence write-behind keeps statuses in node memory and cannot be
+ * combined with this mode.
+ */
+@Component
+@ConditionalOnProperty(name = "users.cluster.enabled", havingValue = "true")
+public class ClusterSync {
+
+  private final ClusterEventBus clusterEventBus;
+  private final EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  public ClusterSync(ClusterEventBus clusterEventBus, EntityManagerFactory entityManagerFactory,
+                     PresenceWriteBehind presenceWriteBehind) {
+    if (presenceWriteBehind.isEnabled()) {
+      throw new IllegalStateException("users.presence.write-behind.enabled is not supported with users.cluster.enabled");
+    }
+    this.clusterEventBus = clusterEventBus;
+    this.entityManagerFactory = entityManagerFactory;
+  }
+
+  /**
+   * runs in the transaction of the change, so the event is sent if and only if the change commits
+   */
+  @TransactionalEventListener(phase = TransactionPhase.BEFORE_COMMIT, fallbackExecution = true)
+  public void onLocalChange(UserChangedEvent event) {
+    if (!event.isRemote()) {
+      clusterEventBus.publish(event);
+    }
+  }
+
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onRemoteChange(UserChangedEvent event) {
+    if (!event.isRemote()) {
+      return;
+    }
+    entityManagerFactory.getCache().evict(User.class, event.getUserId());
+    if (event.getType() == UserChangedEvent.Type.UPDATED) {
+      // the username may have changed, natural ids can only be evicted per entity class
+      entityManagerFactory.unwrap(SessionFactory.class).getCache().evictNaturalIdData(User.class);
+    }
+  }
+}
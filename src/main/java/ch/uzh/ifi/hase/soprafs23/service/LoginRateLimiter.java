@@ -0,0 +1,89 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.exceptions.TooManyRequestsException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Login Rate Limiter
+ * Throttles /login per client address and per username before any user is
+ * loaded or password checked, so a credential stuffing burst is answered
+ * with 429 instead of database lookups and bcrypt work. The username limit
+ * also slows down guessing the password of one user from many addresses.
+ */
+@Component
+public class LoginRateLimiter {
+
+  private final RateLimiter byAddress;
+  private final RateLimiter byUsername;
+  private final boolean enabled;
+
+  private final LongAdder addressRejections = new LongAdder();
+  private final LongAdder usernameRejections = new LongAdder();
+
+  @Autowired
+  public LoginRateLimiter(@Value("${users.login.rate-limit.enabled:true}") boolean enabled,
+                          @Value("${users.login.rate-limit.address.per-minute:60}") int addressPerMinute,
+                          @Value("${users.login.rate-limit.address.burst:20}") int addressBurst,
+                          @Value("${users.login.rate-limit.username.per-minute:10}") int usernamePerMinute,
+                          @Value("${users.login.rate-limit.username.burst:10}") int usernameBurst,
+                          @Value("${users.login.rate-limit.max-keys:100000}") int maxKeys) {
+    this(enabled, new RateLimiter(addressPerMinute, addressBurst, maxKeys, System::nanoTime),
+        new RateLimiter(usernamePerMinute, usernameBurst, maxKeys, System::nanoTime));
+  }
+
+  LoginRateLimiter(boolean enabled, RateLimiter byAddress, RateLimiter byUsername) {
+    this.enabled = enabled;
+    this.byAddress = byAddress;
+    this.byUsername = byUsername;
+  }
+
+  /**
+   * @throws TooManyRequestsException 429 with Retry-After if the address or the username sent too many attempts
+   */
+  public void acquire(String address, String username) {
+    if (!enabled) {
+      return;
+    }
+    long waitNanos = byAddress.tryAcquire(address);
+    if (waitNanos > 0) {
+      addressRejections.increment();
+      throw new TooManyRequestsException("Too many login attempts, please try again later!", toRetryAfterSeconds(waitNanos));
+    }
+    if (username != null) {
+      waitNanos = byUsername.tryAcquire(username.toLowerCase(Locale.ROOT));
+      if (waitNanos > 0) {
+        usernameRejections.increment();
+        throw new TooManyRequestsException("Too many login attempts, please try again later!", toRetryAfterSeconds(waitNanos));
+      }
+    }
+  }
+
+  public long getAddressRejectionCount() {
+    return addressRejections.sum();
+  }
+
+  public long getUsernameRejectionCount() {
+    return usernameRejections.sum();
+  }
+
+  public int getTrackedKeyCount() {
+    return byAddress.size() + byUsername.size();
+  }
+
+  @Scheduled(fixedDelayString = "${users.login.rate-limit.eviction-interval-ms:60000}")
+  public void evictIdle() {
+    byAddress.evictIdle();
+    byUsername.evictIdle();
+  }
+
+  private static long toRetryAfterSeconds(long waitNanos) {
+    return Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+  }
+}
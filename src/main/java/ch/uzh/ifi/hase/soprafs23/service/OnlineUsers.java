@@ -0,0 +1,216 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.event.UserChangedEvent;
+import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Online Users
+ * The ids of all online users in a compressed (Roaring) bitmap, so listing,
+ * counting and checking a friend list need no database access. Every block of
+ * 65536 ids is stored as a sorted array, a bitmap or runs, whichever is the
+ * smallest, so 1M users take a few hundred KB at most.
+ * It is filled on startup and afterwards kept up to date from the
+ * UserChangedEvents (registration, login, logout, heartbeat expiry, other
+ * nodes). User ids come from USER_SEQUENCE and have to fit into an int.
+ */
+@Component
+public class OnlineUsers {
+
+  private static final int CHUNK_SIZE = 10_000;
+
+  private final Logger log = LoggerFactory.getLogger(OnlineUsers.class);
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private RoaringBitmap online = new RoaringBitmap();
+  // changes while load() reads the table, applied again over the loaded bitmap
+  private Map<Integer, Boolean> changedDuringLoad;
+
+  private final UserRepository userRepository;
+  private final TransactionTemplate transaction;
+
+  @Autowired
+  public OnlineUsers(@Qualifier("userRepository") UserRepository userRepository,
+                     PlatformTransactionManager transactionManager) {
+    this.userRepository = userRepository;
+    this.transaction = new TransactionTemplate(transactionManager);
+    this.transaction.setReadOnly(true);
+  }
+
+  /**
+   * reads the ids of the online users into a new bitmap and swaps it in, an
+   * event that arrived meanwhile is newer and wins
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void load() {
+    lock.writeLock().lock();
+    try {
+      changedDuringLoad = new LinkedHashMap<>();
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+
+    RoaringBitmap loaded = new RoaringBitmap();
+    Long after = 0L;
+    while (after != null) {
+      Long from = after;
+      after = transaction.execute(tx -> {
+        List<Long> ids = userRepository.findIdsByStatusAndIdGreaterThan(UserStatus.ONLINE, from,
+            PageRequest.of(0, CHUNK_SIZE));
+        ids.forEach(id -> loaded.add(toInt(id)));
+        return ids.size() < CHUNK_SIZE ? null : ids.get(ids.size() - 1);
+      });
+    }
+
+    lock.writeLock().lock();
+    try {
+      changedDuringLoad.forEach((id, isOnline) -> set(loaded, id, isOnline));
+      changedDuringLoad = null;
+      loaded.runOptimize();
+      online = loaded;
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+    log.info("Loaded {} online users ({} bytes)", count(), getSizeInBytes());
+  }
+
+  /**
+   * runs before PresenceBroadcaster queues the change, so a presence snapshot
+   * contains every change with a sequence up to its subscription
+   */
+  @Order(Ordered.HIGHEST_PRECEDENCE)
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onUserChanged(UserChangedEvent event) {
+    int id = toInt(event.getUserId());
+    boolean isOnline = event.getStatus() == UserStatus.ONLINE;
+    lock.writeLock().lock();
+    try {
+      set(online, id, isOnline);
+      if (changedDuringLoad != null) {
+        changedDuringLoad.put(id, isOnline);
+      }
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public boolean isOnline(Long userId) {
+    lock.readLock().lock();
+    try {
+      return online.contains(toInt(userId));
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public long count() {
+    lock.readLock().lock();
+    try {
+      return online.getLongCardinality();
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return at most limit online user ids greater than after, ascending
+   */
+  public List<Long> page(Long after, int limit) {
+    List<Long> ids = new ArrayList<>(Math.min(limit, 1024));
+    lock.readLock().lock();
+    try {
+      PeekableIntIterator iterator = online.getIntIterator();
+      if (after != null && after >= 0) {
+        if (after >= Integer.MAX_VALUE) {
+          return ids;
+        }
+        iterator.advanceIfNeeded(after.intValue() + 1);
+      }
+      while (iterator.hasNext() && ids.size() < limit) {
+        ids.add((long) iterator.next());
+      }
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+    return ids;
+  }
+
+  /**
+   * @return the online users among the given ones (e.g. a friend list), ascending and without duplicates
+   */
+  public List<Long> intersect(Collection<Long> userIds) {
+    RoaringBitmap given = new RoaringBitmap();
+    for (Long userId : userIds) {
+      // an id that cannot be a user id cannot be online either
+      if (userId != null && userId > 0 && userId <= Integer.MAX_VALUE) {
+        given.add(userId.intValue());
+      }
+    }
+    RoaringBitmap result;
+    lock.readLock().lock();
+    try {
+      result = RoaringBitmap.and(online, given);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+    List<Long> ids = new ArrayList<>(result.getCardinality());
+    result.forEach((int id) -> ids.add((long) id));
+    return ids;
+  }
+
+  public long getSizeInBytes() {
+    lock.readLock().lock();
+    try {
+      return online.getLongSizeInBytes();
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private static void set(RoaringBitmap bitmap, int id, boolean isOnline) {
+    if (isOnline) {
+      bitmap.add(id);
+    }
+    else {
+      bitmap.remove(id);
+    }
+  }
+
+  private static int toInt(Long userId) {
+    if (userId < 0 || userId > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("User id " + userId + " does not fit into the online bitmap");
+    }
+    return userId.intValue();
+  }
+}
@@ -0,0 +1,169 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Password Hasher
+ * Hashes and verifies passwords with bcrypt on a dedicated, bounded pool
+ * (one thread per core by default), so a burst of logins cannot occupy all
+ * request threads with hashing. The request thread only waits for the result.
+ * If the queue is full or the result takes too long the request fails with 503.
+ * Passwords stored before hashing was introduced (plaintext) are still
+ * accepted and reported by needsRehash, so they can be hashed on the next login.
+ */
+@Component
+public class PasswordHasher {
+
+  private static final Pattern BCRYPT_PATTERN = Pattern.compile("\\$2[aby]?\\$\\d\\d\\$[./0-9A-Za-z]{53}");
+
+  private final BCryptPasswordEncoder encoder;
+  private final ThreadPoolExecutor executor;
+  private final long timeoutMillis;
+
+  private final LongAdder hashCount = new LongAdder();
+  private final LongAdder hashNanos = new LongAdder();
+  private final LongAdder rejectionCount = new LongAdder();
+
+  @Autowired
+  public PasswordHasher(@Value("${users.password.bcrypt-cost:10}") int cost,
+                        @Value("${users.password.threads:0}") int threads,
+                        @Value("${users.password.queue-capacity:256}") int queueCapacity,
+                        @Value("${users.password.timeout-ms:5000}") long timeoutMillis) {
+    int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("password-hasher-");
+    threadFactory.setDaemon(true);
+
+    this.encoder = new BCryptPasswordEncoder(cost);
+    this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  public String hash(String rawPassword) {
+    return await(submit(() -> encoder.encode(rawPassword)));
+  }
+
+  /**
+   * hashes many passwords in parallel, at most one per pool thread at a time
+   * so a large batch does not overflow the queue
+   */
+  public List<String> hashAll(List<String> rawPasswords) {
+    List<String> hashes = new ArrayList<>(rawPasswords.size());
+    int window = executor.getMaximumPoolSize();
+    for (int start = 0; start < rawPasswords.size(); start += window) {
+      List<Future<String>> futures = new ArrayList<>(window);
+      for (String rawPassword : rawPasswords.subList(start, Math.min(rawPasswords.size(), start + window))) {
+        futures.add(submit(() -> encoder.encode(rawPassword)));
+      }
+      for (Future<String> future : futures) {
+        hashes.add(await(future));
+      }
+    }
+    return hashes;
+  }
+
+  public boolean matches(String rawPassword, String storedPassword) {
+    if (rawPassword == null || storedPassword == null) {
+      return false;
+    }
+    if (isLegacy(storedPassword)) {
+      return MessageDigest.isEqual(rawPassword.getBytes(StandardCharsets.UTF_8),
+          storedPassword.getBytes(StandardCharsets.UTF_8));
+    }
+    return await(submit(() -> encoder.matches(rawPassword, storedPassword)));
+  }
+
+  /**
+   * @return true for plaintext passwords and hashes with a lower cost than configured
+   */
+  public boolean needsRehash(String storedPassword) {
+    return isLegacy(storedPassword) || encoder.upgradeEncoding(storedPassword);
+  }
+
+  public int getQueueDepth() {
+    return executor.getQueue().size();
+  }
+
+  public int getActiveCount() {
+    return executor.getActiveCount();
+  }
+
+  public long getHashCount() {
+    return hashCount.sum();
+  }
+
+  public long getTotalHashTimeNanos() {
+    return hashNanos.sum();
+  }
+
+  public long getRejectionCount() {
+    return rejectionCount.sum();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  private boolean isLegacy(String storedPassword) {
+    return !BCRYPT_PATTERN.matcher(storedPassword).matches();
+  }
+
+  private <T> Future<T> submit(Callable<T> task) {
+    try {
+      return executor.submit(() -> {
+        long start = System.nanoTime();
+        try {
+          return task.call();
+        }
+        finally {
+          hashCount.increment();
+          hashNanos.add(System.nanoTime() - start);
+        }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      rejectionCount.increment();
+      throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Server busy, please try again!");//503
+    }
+  }
+
+  private <T> T await(Future<T> future) {
+    try {
+      return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+    catch (TimeoutException e) {
+      future.cancel(true);
+      throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Server busy, please try again!");//503
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Request interrupted!");//503
+    }
+    catch (ExecutionException e) {
+      throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Password hashing failed!", e.getCause());//500
+    }
+  }
+}
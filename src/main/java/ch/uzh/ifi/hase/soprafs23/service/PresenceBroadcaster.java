@@ -0,0 +1,274 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.event.UserChangedEvent;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.PresenceDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Presence Broadcaster
+ * Pushes user changes to the subscribed clients as server-sent events.
+ * A new subscriber first receives the online users in "snapshot" events,
+ * read from OnlineUsers and UsernameIndex without touching the database,
+ * then a "ready" event, then one "delta" event per change.
+ * Every subscriber has its own bounded queue of deltas, drained by a small
+ * pool of sender threads, so a slow client only delays itself. Deltas that
+ * happen while the snapshot is sent wait in the queue, so a client never
+ * applies an older snapshot entry over a delta.
+ */
+@Component
+public class PresenceBroadcaster {
+
+  static final int SNAPSHOT_CHUNK_SIZE = 500;
+
+  /**
+   * a client that falls this many deltas behind is dropped and has to reconnect
+   */
+  static final int MAX_QUEUED_DELTAS = 10000;
+
+  private final Logger log = LoggerFactory.getLogger(PresenceBroadcaster.class);
+
+  private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+  private final AtomicLong sequence = new AtomicLong();
+
+  private final OnlineUsers onlineUsers;
+  private final UsernameIndex usernameIndex;
+  private final Executor snapshotExecutor;
+  private final Executor sendExecutor;
+
+  @Autowired
+  public PresenceBroadcaster(OnlineUsers onlineUsers, UsernameIndex usernameIndex,
+                             @Value("${users.presence.send-threads:4}") int sendThreads) {
+    this(onlineUsers, usernameIndex,
+        Executors.newFixedThreadPool(2, daemonThreads("presence-snapshot-")),
+        Executors.newFixedThreadPool(sendThreads, daemonThreads("presence-send-")));
+  }
+
+  PresenceBroadcaster(OnlineUsers onlineUsers, UsernameIndex usernameIndex,
+                      Executor snapshotExecutor, Executor sendExecutor) {
+    this.onlineUsers = onlineUsers;
+    this.usernameIndex = usernameIndex;
+    this.snapshotExecutor = snapshotExecutor;
+    this.sendExecutor = sendExecutor;
+  }
+
+  public void subscribe(SseEmitter emitter) {
+    Subscriber subscriber = new Subscriber(emitter);
+    emitter.onCompletion(() -> subscribers.remove(subscriber));
+    emitter.onTimeout(emitter::complete);
+    emitter.onError(e -> subscribers.remove(subscriber));
+
+    long subscribedAt;
+    // every later delta is queued for the new subscriber, every earlier one is in OnlineUsers already
+    synchronized (subscribers) {
+      subscribers.add(subscriber);
+      subscribedAt = sequence.get();
+    }
+    snapshotExecutor.execute(() -> sendSnapshot(subscriber, subscribedAt));
+  }
+
+  public int getSubscriberCount() {
+    return subscribers.size();
+  }
+
+  /**
+   * runs after the commit of the change, a rolled back change is never pushed,
+   * and after OnlineUsers has applied it. Only queues the delta, no client is written to here.
+   */
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onUserChanged(UserChangedEvent event) {
+    PresenceDTO delta = new PresenceDTO();
+    delta.setType(event.getType().name());
+    delta.setId(event.getUserId());
+    delta.setUsername(event.getUsername());
+    delta.setStatus(event.getStatus());
+
+    // the lock keeps the sequence in the same order in every queue
+    synchronized (subscribers) {
+      delta.setSequence(sequence.incrementAndGet());
+      subscribers.forEach(subscriber -> subscriber.enqueue(delta));
+    }
+  }
+
+  private void sendSnapshot(Subscriber subscriber, long subscribedAt) {
+    try {
+      Long after = null;
+      while (!subscriber.isDropped()) {
+        List<Long> ids = onlineUsers.page(after, SNAPSHOT_CHUNK_SIZE);
+        if (ids.isEmpty()) {
+          break;
+        }
+        List<PresenceDTO> chunk = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+          PresenceDTO entry = new PresenceDTO();
+          entry.setId(id);
+          entry.setUsername(usernameIndex.getUsername(id));
+          entry.setStatus(UserStatus.ONLINE);
+          chunk.add(entry);
+        }
+        subscriber.send("snapshot", chunk);
+        after = ids.get(ids.size() - 1);
+      }
+      subscriber.ready(subscribedAt);
+    }
+    catch (UncheckedIOException e) {
+      subscriber.drop(e);
+    }
+    catch (RuntimeException e) {
+      log.error("Presence snapshot failed", e);
+      subscriber.drop(e);
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    subscribers.forEach(subscriber -> subscriber.emitter.complete());
+    if (snapshotExecutor instanceof ExecutorService) {
+      ((ExecutorService) snapshotExecutor).shutdownNow();
+    }
+    if (sendExecutor instanceof ExecutorService) {
+      ((ExecutorService) sendExecutor).shutdownNow();
+    }
+  }
+
+  private static CustomizableThreadFactory daemonThreads(String prefix) {
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(prefix);
+    threadFactory.setDaemon(true);
+    return threadFactory;
+  }
+
+  /**
+   * Only one thread writes to the emitter at a time: the snapshot thread until
+   * the snapshot is sent, afterwards the sender thread draining the queue.
+   * A subscriber dropped meanwhile is completed by that thread once its write returns.
+   */
+  private final class Subscriber {
+    private final SseEmitter emitter;
+
+    // all guarded by this
+    private final Deque<PresenceDTO> queue = new ArrayDeque<>();
+    private boolean snapshotSent;
+    private boolean draining;
+    private Throwable dropCause;
+
+    private Subscriber(SseEmitter emitter) {
+      this.emitter = emitter;
+    }
+
+    private synchronized void enqueue(PresenceDTO delta) {
+      if (dropCause != null) {
+        return;
+      }
+      if (queue.size() == MAX_QUEUED_DELTAS) {
+        dropCause = new IllegalStateException("The client fell more than " + MAX_QUEUED_DELTAS + " deltas behind");
+        queue.clear();
+        subscribers.remove(this);
+        if (snapshotSent && !draining) {
+          emitter.completeWithError(dropCause);
+        }
+        return;
+      }
+      queue.add(delta);
+      scheduleDrain();
+    }
+
+    private synchronized boolean isDropped() {
+      return dropCause != null;
+    }
+
+    private void ready(long subscribedAt) {
+      if (!isDropped()) {
+        send("ready", Collections.singletonMap("sequence", subscribedAt));
+      }
+      synchronized (this) {
+        snapshotSent = true;
+        if (dropCause != null) {
+          emitter.completeWithError(dropCause);
+        }
+        else {
+          scheduleDrain();
+        }
+      }
+    }
+
+    /**
+     * has to be called holding the lock
+     */
+    private void scheduleDrain() {
+      if (snapshotSent && !draining && !queue.isEmpty()) {
+        draining = true;
+        sendExecutor.execute(this::drain);
+      }
+    }
+
+    private void drain() {
+      while (true) {
+        PresenceDTO delta;
+        synchronized (this) {
+          if (dropCause != null) {
+            draining = false;
+            emitter.completeWithError(dropCause);
+            return;
+          }
+          delta = queue.poll();
+          if (delta == null) {
+            draining = false;
+            return;
+          }
+        }
+        try {
+          send("delta", delta);
+        }
+        catch (UncheckedIOException | IllegalStateException e) {
+          // the client went away, IllegalStateException if the emitter was completed meanwhile
+          drop(e);
+          return;
+        }
+      }
+    }
+
+    private void send(String name, Object data) {
+      try {
+        emitter.send(SseEmitter.event().name(name).data(data));
+      }
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    /**
+     * called by the thread currently writing to the emitter
+     */
+    private void drop(Throwable cause) {
+      synchronized (this) {
+        dropCause = cause;
+        queue.clear();
+        draining = false;
+      }
+      subscribers.remove(this);
+      emitter.completeWithError(cause);
+    }
+  }
+}
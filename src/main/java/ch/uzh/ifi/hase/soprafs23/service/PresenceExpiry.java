@@ -0,0 +1,342 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.event.UserChangedEvent;
+import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Presence Expiry
+ * Optional mode (users.presence.heartbeat.enabled) where an ONLINE user has
+ * to send heartbeats, a user without one for timeout is set OFFLINE like
+ * after a logout. This covers clients that crashed or lost the connection.
+ * Every online user has a session with the time of the last heartbeat and
+ * one entry in a timing wheel, a heartbeat only updates that time. When the
+ * entry becomes due the session is either rescheduled to its new deadline or
+ * expired, so a tick only costs the entries of one slot, independent of the
+ * number of online users. The users expired in one tick are written with one
+ * UPDATE per chunk (or handed to the presence write-behind). The rows are
+ * locked and checked first: a login or a heartbeat that reached the database
+ * in the meantime keeps the user online.
+ * With the cluster profile the heartbeats of a user can reach any node, every
+ * node writes the ones it received to USER.LAST_SEEN once per tick and a
+ * session that is only locally due is resumed from the shared time.
+ * An expired user is remembered for another timeout, a heartbeat within it
+ * logs the user in again (e.g. after a network outage), after a logout it does not.
+ */
+@Component
+public class PresenceExpiry {
+
+  private static final int WHEEL_SLOTS = 512;
+  private static final int CHUNK_SIZE = 1000;
+
+  private final Logger log = LoggerFactory.getLogger(PresenceExpiry.class);
+
+  private final Map<Long, Session> sessions = new ConcurrentHashMap<>();
+  private final Map<Long, Session> expiredSessions = new ConcurrentHashMap<>();
+  private final Set<Long> unflushed = ConcurrentHashMap.newKeySet();
+  private final LongAdder expiredCount = new LongAdder();
+
+  private final UserRepository userRepository;
+  private final PresenceWriteBehind presenceWriteBehind;
+  private final ApplicationEventPublisher eventPublisher;
+  private final TransactionTemplate transaction;
+  private final TransactionTemplate readTransaction;
+  private final boolean enabled;
+  private final boolean clustered;
+  private final long timeoutMillis;
+  private final LongSupplier clock;
+  private final TimingWheel<Session> wheel;
+
+  @Autowired
+  public PresenceExpiry(@Qualifier("userRepository") UserRepository userRepository,
+                        PresenceWriteBehind presenceWriteBehind, ApplicationEventPublisher eventPublisher,
+                        PlatformTransactionManager transactionManager,
+                        @Value("${users.presence.heartbeat.enabled:false}") boolean enabled,
+                        @Value("${users.presence.heartbeat.timeout-seconds:90}") long timeoutSeconds,
+                        @Value("${users.presence.heartbeat.tick-ms:1000}") long tickMillis,
+                        @Value("${users.cluster.enabled:false}") boolean clustered) {
+    this(userRepository, presenceWriteBehind, eventPublisher, transactionManager, enabled, clustered,
+        TimeUnit.SECONDS.toMillis(timeoutSeconds), tickMillis, System::currentTimeMillis);
+  }
+
+  PresenceExpiry(UserRepository userRepository, PresenceWriteBehind presenceWriteBehind,
+                 ApplicationEventPublisher eventPublisher, PlatformTransactionManager transactionManager,
+                 boolean enabled, boolean clustered, long timeoutMillis, long tickMillis, LongSupplier clock) {
+    this.userRepository = userRepository;
+    this.presenceWriteBehind = presenceWriteBehind;
+    this.eventPublisher = eventPublisher;
+    this.transaction = new TransactionTemplate(transactionManager);
+    this.transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    this.readTransaction = new TransactionTemplate(transactionManager);
+    this.readTransaction.setReadOnly(true);
+    this.enabled = enabled;
+    this.clustered = clustered;
+    this.timeoutMillis = timeoutMillis;
+    this.clock = clock;
+    this.wheel = new TimingWheel<>(WHEEL_SLOTS, tickMillis, clock.getAsLong());
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * records a heartbeat of an online user
+   */
+  public void touch(Long userId, String username) {
+    if (!enabled) {
+      return;
+    }
+    track(userId, username, clock.getAsLong());
+    if (clustered) {
+      unflushed.add(userId);
+    }
+  }
+
+  private void track(Long userId, String username, long lastSeen) {
+    Session session = sessions.computeIfAbsent(userId, id -> {
+      Session created = new Session(id, username, lastSeen);
+      wheel.schedule(created, lastSeen + timeoutMillis);
+      return created;
+    });
+    if (session.lastSeen < lastSeen) {
+      session.lastSeen = lastSeen;
+    }
+    session.username = username;
+  }
+
+  public void cancel(Long userId) {
+    sessions.remove(userId);
+    expiredSessions.remove(userId);
+  }
+
+  /**
+   * @return true if the user was set offline for missing heartbeats within the last timeout
+   */
+  public boolean wasExpired(Long userId) {
+    return expiredSessions.containsKey(userId);
+  }
+
+  public int getSessionCount() {
+    return sessions.size();
+  }
+
+  public long getExpiredCount() {
+    return expiredCount.sum();
+  }
+
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onUserChanged(UserChangedEvent event) {
+    if (!enabled) {
+      return;
+    }
+    if (event.getType() == UserChangedEvent.Type.EXPIRED) {
+      // the own ones are published by expire() after the session was moved
+      if (event.isRemote()) {
+        expiredElsewhere(event.getUserId(), event.getUsername());
+      }
+      return;
+    }
+    if (event.getStatus() == UserStatus.ONLINE) {
+      expiredSessions.remove(event.getUserId());
+      track(event.getUserId(), event.getUsername(), clock.getAsLong());
+    }
+    else {
+      cancel(event.getUserId());
+    }
+  }
+
+  /**
+   * users that were online before the start get one timeout to send a heartbeat
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void load() {
+    if (!enabled) {
+      return;
+    }
+    Long after = 0L;
+    while (after != null) {
+      Long from = after;
+      after = readTransaction.execute(tx -> {
+        List<User> users = userRepository.findByStatusAndIdGreaterThanOrderByIdAsc(UserStatus.ONLINE, from,
+            PageRequest.of(0, CHUNK_SIZE));
+        long now = clock.getAsLong();
+        users.forEach(user -> track(user.getId(), user.getUsername(), now));
+        return users.size() < CHUNK_SIZE ? null : users.get(users.size() - 1).getId();
+      });
+    }
+    log.info("Tracking {} online users", sessions.size());
+  }
+
+  @Scheduled(fixedRateString = "${users.presence.heartbeat.tick-ms:1000}")
+  public void tick() {
+    if (!enabled) {
+      return;
+    }
+    long now = clock.getAsLong();
+    if (clustered) {
+      flush(now);
+    }
+    List<Session> due = new ArrayList<>();
+    for (Session session : wheel.advance(now)) {
+      if (session.expired) {
+        expiredSessions.remove(session.userId, session);
+        continue;
+      }
+      if (sessions.get(session.userId) != session) {
+        // logged out (and maybe in again) since it was scheduled
+        continue;
+      }
+      long deadline = session.lastSeen + timeoutMillis;
+      if (deadline > now) {
+        wheel.schedule(session, deadline);
+      }
+      else if (sessions.remove(session.userId, session)) {
+        markExpired(session, now);
+        due.add(session);
+      }
+    }
+    if (!due.isEmpty()) {
+      expire(due, now);
+    }
+  }
+
+  /**
+   * writes the heartbeats received since the last tick, one UPDATE per chunk
+   */
+  private void flush(long now) {
+    List<Long> userIds = new ArrayList<>();
+    for (Iterator<Long> it = unflushed.iterator(); it.hasNext(); ) {
+      userIds.add(it.next());
+      it.remove();
+    }
+    if (userIds.isEmpty()) {
+      return;
+    }
+    Instant lastSeen = Instant.ofEpochMilli(now);
+    transaction.executeWithoutResult(tx -> {
+      for (int start = 0; start < userIds.size(); start += CHUNK_SIZE) {
+        userRepository.updateLastSeen(userIds.subList(start, Math.min(userIds.size(), start + CHUNK_SIZE)),
+            lastSeen);
+      }
+    });
+  }
+
+  private void expire(List<Session> due, long now) {
+    if (presenceWriteBehind.isEnabled()) {
+      // single node only, the local sessions are all there is
+      due.forEach(session -> presenceWriteBehind.record(session.userId, UserStatus.OFFLINE));
+      publishExpired(due);
+    }
+    else {
+      // published within the transaction, the cluster event is written with the status
+      transaction.executeWithoutResult(tx -> publishExpired(setOffline(due, now - timeoutMillis)));
+    }
+  }
+
+  private void publishExpired(List<Session> expired) {
+    expired.forEach(session -> eventPublisher.publishEvent(
+        new UserChangedEvent(UserChangedEvent.Type.EXPIRED, session.userId, session.username, UserStatus.OFFLINE)));
+    expiredCount.add(expired.size());
+    log.debug("Set {} idle users offline", expired.size());
+  }
+
+  /**
+   * sets the due users offline whose row is still ONLINE and not seen after the
+   * cutoff. The rows stay locked until the commit, so a concurrent login waits
+   * and sets the user online again instead of being overwritten.
+   *
+   * @return the sessions that were expired
+   */
+  private List<Session> setOffline(List<Session> due, long cutoff) {
+    List<Session> expired = new ArrayList<>(due.size());
+    for (int start = 0; start < due.size(); start += CHUNK_SIZE) {
+      List<Session> chunk = due.subList(start, Math.min(due.size(), start + CHUNK_SIZE));
+      List<Long> userIds = new ArrayList<>(chunk.size());
+      chunk.forEach(session -> userIds.add(session.userId));
+      Map<Long, Instant> online = userRepository.lockOnlineLastSeen(userIds);
+      List<Long> stale = new ArrayList<>(chunk.size());
+      for (Session session : chunk) {
+        if (!online.containsKey(session.userId)) {
+          // logged out or expired by another node, its event updates the session
+          continue;
+        }
+        Instant lastSeen = online.get(session.userId);
+        if (lastSeen != null && lastSeen.toEpochMilli() > cutoff) {
+          // logged in again or seen by another node
+          resume(session, lastSeen.toEpochMilli());
+          continue;
+        }
+        stale.add(session.userId);
+        expired.add(session);
+      }
+      if (!stale.isEmpty()) {
+        userRepository.updateStatus(UserStatus.OFFLINE, stale);
+      }
+    }
+    return expired;
+  }
+
+  private void resume(Session session, long lastSeen) {
+    expiredSessions.remove(session.userId, session);
+    track(session.userId, session.username, lastSeen);
+  }
+
+  /**
+   * another node set the user offline, a heartbeat that arrives here logs it in again
+   */
+  private void expiredElsewhere(Long userId, String username) {
+    Session session = sessions.remove(userId);
+    if (session == null) {
+      session = new Session(userId, username, clock.getAsLong());
+    }
+    markExpired(session, clock.getAsLong());
+  }
+
+  private void markExpired(Session session, long now) {
+    session.expired = true;
+    expiredSessions.put(session.userId, session);
+    // forgotten again after another timeout
+    wheel.schedule(session, now + timeoutMillis);
+  }
+
+  private static final class Session {
+    private final Long userId;
+    private volatile String username;
+    private volatile long lastSeen;
+    private volatile boolean expired;
+
+    private Session(Long userId, String username, long lastSeen) {
+      this.userId = userId;
+      this.username = username;
+      this.lastSeen = lastSeen;
+    }
+  }
+}
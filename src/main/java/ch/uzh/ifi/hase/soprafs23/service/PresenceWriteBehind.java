@@ -0,0 +1,121 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Presence Write Behind
+ * Optional mode for login/logout: the new status of a user is kept in an
+ * in-memory presence table, so reads see it at once, and written to the
+ * database later in one UPDATE per status. Several transitions of the same
+ * user in between are coalesced into the last one.
+ * The table holds at most capacity users, a transition that does not fit
+ * anymore flushes the table on the caller's thread first (backpressure).
+ */
+@Component
+public class PresenceWriteBehind {
+
+  private static final int UPDATE_CHUNK_SIZE = 1000;
+
+  private final Logger log = LoggerFactory.getLogger(PresenceWriteBehind.class);
+
+  private final Map<Long, UserStatus> pending = new ConcurrentHashMap<>();
+  private final Object flushLock = new Object();
+  private final AtomicLong generation = new AtomicLong();
+
+  private final UserRepository userRepository;
+  private final TransactionTemplate transaction;
+  private final boolean enabled;
+  private final int capacity;
+
+  @Autowired
+  public PresenceWriteBehind(@Qualifier("userRepository") UserRepository userRepository,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${users.presence.write-behind.enabled:false}") boolean enabled,
+                             @Value("${users.presence.write-behind.capacity:100000}") int capacity) {
+    this.userRepository = userRepository;
+    this.transaction = new TransactionTemplate(transactionManager);
+    // the batched UPDATE must not be rolled back together with the request that triggered it
+    this.transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    this.enabled = enabled;
+    this.capacity = capacity;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void record(Long userId, UserStatus status) {
+    if (!pending.containsKey(userId) && pending.size() >= capacity) {
+      log.debug("Presence table full, flushing on the caller's thread");
+      flush();
+    }
+    pending.put(userId, status);
+    generation.incrementAndGet();
+  }
+
+  /**
+   * @return the recorded but not yet written status or the persisted one
+   */
+  public UserStatus statusOf(Long userId, UserStatus persistedStatus) {
+    UserStatus pendingStatus = pending.get(userId);
+    return pendingStatus != null ? pendingStatus : persistedStatus;
+  }
+
+  /**
+   * counts the recorded transitions, changes whenever the visible presence changed
+   */
+  public long getGeneration() {
+    return generation.get();
+  }
+
+  public int getPendingCount() {
+    return pending.size();
+  }
+
+  @Scheduled(fixedDelayString = "${users.presence.write-behind.flush-interval-ms:500}")
+  public void flush() {
+    if (pending.isEmpty()) {
+      return;
+    }
+    synchronized (flushLock) {
+      Map<Long, UserStatus> snapshot = new HashMap<>(pending);
+      Map<UserStatus, List<Long>> idsByStatus = new EnumMap<>(UserStatus.class);
+      snapshot.forEach((userId, status) -> idsByStatus.computeIfAbsent(status, s -> new ArrayList<>()).add(userId));
+
+      transaction.executeWithoutResult(tx -> idsByStatus.forEach((status, userIds) -> {
+        for (int start = 0; start < userIds.size(); start += UPDATE_CHUNK_SIZE) {
+          userRepository.updateStatus(status, userIds.subList(start, Math.min(userIds.size(), start + UPDATE_CHUNK_SIZE)));
+        }
+      }));
+
+      // only drop what was written, a newer transition recorded meanwhile stays pending
+      snapshot.forEach(pending::remove);
+      log.debug("Wrote {} presence transitions", snapshot.size());
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    flush();
+  }
+}
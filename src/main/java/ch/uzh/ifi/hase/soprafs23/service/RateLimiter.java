@@ -0,0 +1,100 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Rate Limiter
+ * Token bucket per key in the GCRA form: instead of a token count every key
+ * only stores the time at which its bucket is full again (theoretical
+ * arrival time), updated with a compare-and-set, so no lock is taken.
+ * A bucket whose time has passed is full and carries no information, such
+ * idle buckets are dropped when the map reaches maxKeys. If that is not
+ * enough, the oldest buckets (the ones that are full again the soonest) are
+ * dropped as well, down to 90% of maxKeys, so a flood of new keys costs one
+ * scan per tenth of the map and never locks out a legitimate client. A
+ * dropped key starts again with a full bucket.
+ */
+class RateLimiter {
+
+  private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+  private final long emissionIntervalNanos;
+  private final long burstToleranceNanos;
+  private final int maxKeys;
+  private final LongSupplier nanoClock;
+  private final AtomicBoolean evicting = new AtomicBoolean();
+
+  /**
+   * @param permitsPerMinute sustained rate per key
+   * @param burst requests a key may send at once after being idle
+   */
+  RateLimiter(int permitsPerMinute, int burst, int maxKeys, LongSupplier nanoClock) {
+    if (permitsPerMinute < 1 || burst < 1) {
+      throw new IllegalArgumentException("Rate and burst must be positive");
+    }
+    this.emissionIntervalNanos = TimeUnit.MINUTES.toNanos(1) / permitsPerMinute;
+    this.burstToleranceNanos = emissionIntervalNanos * (burst - 1);
+    this.maxKeys = maxKeys;
+    this.nanoClock = nanoClock;
+  }
+
+  /**
+   * @return 0 if the request may pass, otherwise the nanoseconds until it would
+   */
+  long tryAcquire(String key) {
+    long now = nanoClock.getAsLong();
+    AtomicLong bucket = buckets.get(key);
+    if (bucket == null) {
+      // one thread makes room, the others meanwhile add their keys, so the map can briefly exceed maxKeys
+      if (buckets.size() >= maxKeys && evicting.compareAndSet(false, true)) {
+        try {
+          evictOldest();
+        }
+        finally {
+          evicting.set(false);
+        }
+      }
+      bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+    }
+    while (true) {
+      long storedTat = bucket.get();
+      long tat = Math.max(storedTat, now);
+      long waitNanos = tat - now - burstToleranceNanos;
+      if (waitNanos > 0) {
+        return waitNanos;
+      }
+      if (bucket.compareAndSet(storedTat, tat + emissionIntervalNanos)) {
+        return 0;
+      }
+    }
+  }
+
+  /**
+   * a request racing with the removal of its idle bucket may go uncounted, it would have passed anyway
+   */
+  void evictIdle() {
+    long now = nanoClock.getAsLong();
+    buckets.values().removeIf(bucket -> bucket.get() <= now);
+  }
+
+  /**
+   * drops the idle buckets and then the ones that are full again the soonest until 90% of maxKeys are left
+   */
+  void evictOldest() {
+    evictIdle();
+    int excess = buckets.size() - (maxKeys - Math.max(1, maxKeys / 10));
+    if (excess > 0) {
+      long[] tats = buckets.values().stream().mapToLong(AtomicLong::get).sorted().toArray();
+      long threshold = tats[Math.min(excess, tats.length) - 1];
+      buckets.values().removeIf(bucket -> bucket.get() <= threshold);
+    }
+  }
+
+  int size() {
+    return buckets.size();
+  }
+}
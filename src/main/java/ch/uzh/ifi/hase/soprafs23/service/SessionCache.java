@@ -0,0 +1,149 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Session Cache
+ * Bounded token -> user id cache in front of UserRepository.findByToken.
+ * The entries are spread over a fixed number of segments, every segment is a
+ * small LRU map guarded by its own lock, so concurrent requests rarely contend.
+ * An entry lives at most ttl, afterwards the next lookup goes to the database again.
+ */
+@Component
+public class SessionCache {
+
+  private static final int SEGMENTS = 16;
+
+  private final Segment[] segments = new Segment[SEGMENTS];
+  private final long ttlMillis;
+  private final LongSupplier clock;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  @Autowired
+  public SessionCache(@Value("${users.session-cache.max-size:10000}") int maxSize,
+                      @Value("${users.session-cache.ttl-seconds:1800}") long ttlSeconds) {
+    this(maxSize, TimeUnit.SECONDS.toMillis(ttlSeconds), System::currentTimeMillis);
+  }
+
+  SessionCache(int maxSize, long ttlMillis, LongSupplier clock) {
+    if (maxSize < SEGMENTS) {
+      throw new IllegalArgumentException("The session cache needs room for at least " + SEGMENTS + " entries");
+    }
+    for (int i = 0; i < SEGMENTS; i++) {
+      segments[i] = new Segment(maxSize / SEGMENTS);
+    }
+    this.ttlMillis = ttlMillis;
+    this.clock = clock;
+  }
+
+  /**
+   * @return the id of the user owning the token or null if it is not cached (anymore)
+   */
+  public Long get(String token) {
+    Segment segment = segmentFor(token);
+    synchronized (segment) {
+      Entry entry = segment.get(token);
+      if (entry == null) {
+        misses.increment();
+        return null;
+      }
+      if (entry.expiresAt <= clock.getAsLong()) {
+        segment.remove(token);
+        evictions.increment();
+        misses.increment();
+        return null;
+      }
+      hits.increment();
+      return entry.userId;
+    }
+  }
+
+  public void put(String token, Long userId) {
+    Segment segment = segmentFor(token);
+    synchronized (segment) {
+      segment.put(token, new Entry(userId, clock.getAsLong() + ttlMillis));
+    }
+  }
+
+  /**
+   * has to be called whenever a token is no longer valid (logout, token rotation)
+   */
+  public void invalidate(String token) {
+    if (token == null) {
+      return;
+    }
+    Segment segment = segmentFor(token);
+    synchronized (segment) {
+      segment.remove(token);
+    }
+  }
+
+  public int size() {
+    int size = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  private Segment segmentFor(String token) {
+    int hash = token.hashCode();
+    return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+  }
+
+  private static final class Entry {
+    private final Long userId;
+    private final long expiresAt;
+
+    private Entry(Long userId, long expiresAt) {
+      this.userId = userId;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  private final class Segment extends LinkedHashMap<String, Entry> {
+    private static final long serialVersionUID = 1L;
+
+    private final int capacity;
+
+    private Segment(int capacity) {
+      // access order -> the eldest entry is the least recently used one
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+      if (size() > capacity) {
+        evictions.increment();
+        return true;
+      }
+      return false;
+    }
+  }
+}
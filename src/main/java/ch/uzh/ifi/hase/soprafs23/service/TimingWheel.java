@@ -0,0 +1,85 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed Timing Wheel
+ * A ring of slots, one per tick. An item is put into the slot of the tick
+ * its deadline falls into (modulo the ring size), so scheduling is O(1) and
+ * advancing by one tick only visits the items of one slot. Items that are
+ * more than one turn ahead stay in their slot until their turn comes.
+ * An item is never returned before its deadline, at most one tick after it.
+ */
+final class TimingWheel<T> {
+
+  private final long tickMillis;
+  private final List<List<Entry<T>>> slots;
+  private long currentTick;
+  private int size;
+
+  TimingWheel(int slotCount, long tickMillis, long nowMillis) {
+    if (slotCount < 1 || tickMillis < 1) {
+      throw new IllegalArgumentException("The timing wheel needs at least one slot and a positive tick");
+    }
+    this.tickMillis = tickMillis;
+    this.slots = new ArrayList<>(slotCount);
+    for (int i = 0; i < slotCount; i++) {
+      slots.add(new ArrayList<>());
+    }
+    this.currentTick = nowMillis / tickMillis;
+  }
+
+  synchronized void schedule(T item, long deadlineMillis) {
+    // round up, the item must not become due before its deadline
+    long tick = Math.max((deadlineMillis + tickMillis - 1) / tickMillis, currentTick);
+    slotOf(tick).add(new Entry<>(item, tick));
+    size++;
+  }
+
+  /**
+   * @return the items whose deadline passed, in no particular order
+   */
+  synchronized List<T> advance(long nowMillis) {
+    List<T> due = new ArrayList<>();
+    long nowTick = nowMillis / tickMillis;
+    // after a long pause one turn visits every slot, an overdue item is found in any later turn
+    currentTick = Math.max(currentTick, nowTick - slots.size() + 1);
+    for (; currentTick <= nowTick; currentTick++) {
+      List<Entry<T>> slot = slotOf(currentTick);
+      int i = 0;
+      while (i < slot.size()) {
+        Entry<T> entry = slot.get(i);
+        if (entry.tick <= currentTick) {
+          // swap with the last entry, the order within a slot does not matter
+          slot.set(i, slot.get(slot.size() - 1));
+          slot.remove(slot.size() - 1);
+          due.add(entry.item);
+        }
+        else {
+          i++;
+        }
+      }
+    }
+    size -= due.size();
+    return due;
+  }
+
+  synchronized int size() {
+    return size;
+  }
+
+  private List<Entry<T>> slotOf(long tick) {
+    return slots.get((int) (tick % slots.size()));
+  }
+
+  private static final class Entry<T> {
+    private final T item;
+    private final long tick;
+
+    private Entry(T item, long tick) {
+      this.item = item;
+      this.tick = tick;
+    }
+  }
+}
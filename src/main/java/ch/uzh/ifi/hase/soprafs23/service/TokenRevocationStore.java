@@ -0,0 +1,91 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.event.UserChangedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Token Revocation Store
+ * Keeps the revocations of the signed token mode in the database, so a node
+ * that (re)starts still rejects the tokens revoked by earlier logouts. The
+ * checks themselves stay in memory (AccessTokens), the table is only written
+ * on logout and read on startup. A row is written in the transaction of the
+ * logout and purged once the revoked tokens expired anyway.
+ */
+@Component
+public class TokenRevocationStore {
+
+  private static final String INSERT_REVOCATION =
+      "INSERT INTO USER_TOKEN_REVOCATION (USER_ID, REVOKED_UNTIL) VALUES (?, ?)";
+  private static final String SELECT_REVOCATIONS =
+      "SELECT USER_ID, MAX(REVOKED_UNTIL) AS REVOKED_UNTIL FROM USER_TOKEN_REVOCATION"
+          + " WHERE REVOKED_UNTIL > ? GROUP BY USER_ID";
+  private static final String DELETE_REVOCATIONS = "DELETE FROM USER_TOKEN_REVOCATION WHERE REVOKED_UNTIL <= ?";
+
+  private final Logger log = LoggerFactory.getLogger(TokenRevocationStore.class);
+
+  private final AccessTokens accessTokens;
+  private final JdbcTemplate jdbcTemplate;
+  private final LongSupplier clock;
+
+  @Autowired
+  public TokenRevocationStore(AccessTokens accessTokens, JdbcTemplate jdbcTemplate) {
+    this(accessTokens, jdbcTemplate, System::currentTimeMillis);
+  }
+
+  TokenRevocationStore(AccessTokens accessTokens, JdbcTemplate jdbcTemplate, LongSupplier clock) {
+    this.accessTokens = accessTokens;
+    this.jdbcTemplate = jdbcTemplate;
+    this.clock = clock;
+  }
+
+  /**
+   * only logouts of this node, the node of a remote event already stored it
+   */
+  @TransactionalEventListener(phase = TransactionPhase.BEFORE_COMMIT, fallbackExecution = true)
+  public void onUserChanged(UserChangedEvent event) {
+    if (accessTokens.isSigned() && !event.isRemote() && event.getType() == UserChangedEvent.Type.STATUS
+        && event.getStatus() == UserStatus.OFFLINE) {
+      jdbcTemplate.update(INSERT_REVOCATION, event.getUserId(), event.getOccurredAt().toEpochMilli());
+    }
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void load() {
+    if (!accessTokens.isSigned()) {
+      return;
+    }
+    AtomicInteger loaded = new AtomicInteger();
+    jdbcTemplate.query(SELECT_REVOCATIONS, rs -> {
+      accessTokens.revokeIssuedUntil(rs.getLong("USER_ID"), rs.getLong("REVOKED_UNTIL"));
+      loaded.incrementAndGet();
+    }, expiredUntil());
+    log.info("Loaded {} token revocations", loaded.get());
+  }
+
+  @Scheduled(fixedDelayString = "${users.token.purge-interval-ms:60000}")
+  public void purge() {
+    if (accessTokens.isSigned()) {
+      jdbcTemplate.update(DELETE_REVOCATIONS, expiredUntil());
+    }
+  }
+
+  /**
+   * tokens issued up to this time expired already
+   */
+  private long expiredUntil() {
+    return clock.getAsLong() - accessTokens.getTtlMillis();
+  }
+}
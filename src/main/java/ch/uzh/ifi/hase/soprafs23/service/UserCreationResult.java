@@ -0,0 +1,51 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Outcome of a single user within a batch registration, either the created
+ * user or the reason why it was rejected.
+ */
+public class UserCreationResult {
+
+  private final String username;
+  private final HttpStatus status;
+  private final String message;
+  private final User user;
+
+  private UserCreationResult(String username, HttpStatus status, String message, User user) {
+    this.username = username;
+    this.status = status;
+    this.message = message;
+    this.user = user;
+  }
+
+  public static UserCreationResult created(User user) {
+    return new UserCreationResult(user.getUsername(), HttpStatus.CREATED, null, user);
+  }
+
+  public static UserCreationResult rejected(String username, HttpStatus status, String message) {
+    return new UserCreationResult(username, status, message, null);
+  }
+
+  public boolean isCreated() {
+    return user != null;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public HttpStatus getStatus() {
+    return status;
+  }
+
+  public String getMessage() {
+    return message;
+  }
+
+  public User getUser() {
+    return user;
+  }
+}
@@ -0,0 +1,34 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.event.UserChangedEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User List Version
+ * Version of the user list for the ETag of GET /users, counted in memory from
+ * the UserChangedEvents after their commit, so answering a poll reads nothing
+ * from the database. Every node starts with its own random epoch, a restarted
+ * node or another node of the cluster never hands out a tag of a different
+ * list. In the multi-node mode the remote events are counted as well.
+ * With a read replica the list can be read before the replica caught up with
+ * a counted change, it is then sent with the newer tag until the next change.
+ */
+@Component
+public class UserListVersion {
+
+  private final String epoch = UUID.randomUUID().toString().substring(0, 8);
+  private final AtomicLong changes = new AtomicLong();
+
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onUserChanged(UserChangedEvent event) {
+    changes.incrementAndGet();
+  }
+
+  public String getTag() {
+    return epoch + "-" + changes.get();
+  }
+}
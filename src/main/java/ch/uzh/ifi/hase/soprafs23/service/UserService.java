@@ -2,23 +2,35 @@ package ch.uzh.ifi.hase.soprafs23.service;
 
 import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.event.UserChangedEvent;
 import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserGetDTO;
 import ch.uzh.ifi.hase.soprafs23.rest.dto.UserPostDTO;
+import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.server.ResponseStatusException;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import javax.persistence.EntityManager;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * User Service
@@ -26,6 +38,9 @@ import java.util.UUID;
  * the user
  * (e.g., it creates, modifies, deletes, finds). The result will be passed back
  * to the caller.
+ * Pure reads run in read-only transactions: Hibernate neither keeps snapshots
+ * nor flushes, and with a read replica configured they are routed to it
+ * (see ReadReplicaConfig).
  */
 @Service
 @Transactional
@@ -33,63 +48,368 @@ public class UserService {
 
   private final Logger log = LoggerFactory.getLogger(UserService.class);
 
+  public static final int MAX_PAGE_SIZE = 100;
+
+  public static final int MAX_BATCH_SIZE = 10000;
+
+  /**
+   * matches hibernate.jdbc.batch_size, every chunk is flushed as one JDBC batch
+   */
+  private static final int INSERT_CHUNK_SIZE = 50;
+
+  private static final int IN_CLAUSE_CHUNK_SIZE = 1000;
+
   private final UserRepository userRepository;
 
+  private final SessionCache sessionCache;
+
+  private final EntityManager entityManager;
+
+  private final PresenceWriteBehind presenceWriteBehind;
+
+  private final ApplicationEventPublisher eventPublisher;
+
+  private final PasswordHasher passwordHasher;
+
+  private final UsernameIndex usernameIndex;
+
+  private final AccessTokens accessTokens;
+
+  private final PresenceExpiry presenceExpiry;
+
+  private final OnlineUsers onlineUsers;
+
+  private final UserListVersion userListVersion;
+
+  private final TransactionTemplate transaction;
+
   @Autowired
-  public UserService(@Qualifier("userRepository") UserRepository userRepository) {
+  public UserService(@Qualifier("userRepository") UserRepository userRepository, SessionCache sessionCache,
+                     EntityManager entityManager, PresenceWriteBehind presenceWriteBehind,
+                     ApplicationEventPublisher eventPublisher, PasswordHasher passwordHasher,
+                     UsernameIndex usernameIndex, AccessTokens accessTokens, PresenceExpiry presenceExpiry,
+                     OnlineUsers onlineUsers, UserListVersion userListVersion,
+                     PlatformTransactionManager transactionManager) {
     this.userRepository = userRepository;
+    this.sessionCache = sessionCache;
+    this.entityManager = entityManager;
+    this.presenceWriteBehind = presenceWriteBehind;
+    this.eventPublisher = eventPublisher;
+    this.passwordHasher = passwordHasher;
+    this.usernameIndex = usernameIndex;
+    this.accessTokens = accessTokens;
+    this.presenceExpiry = presenceExpiry;
+    this.onlineUsers = onlineUsers;
+    this.userListVersion = userListVersion;
+    this.transaction = new TransactionTemplate(transactionManager);
   }
 
-  public List<User> getUsers() {
-    return this.userRepository.findAll();
+  /**
+   * list read model: reads only the shown columns straight into the DTOs, in a
+   * read-only transaction, so no entities are hydrated, snapshotted or dirty-checked
+   */
+  @Transactional(readOnly = true)
+  public List<UserGetDTO> getUsers() {
+    return withPresenceAll(this.userRepository.findAllUserGetDTOs());
   }
 
-  public User createUser(User newUser) throws ParseException {
-    newUser.setToken(UUID.randomUUID().toString());
-      /**
-       * make registered user online
-       */
-    newUser.setStatus(UserStatus.ONLINE);
-    newUser.setCreationDate(new Date());
+    /**
+     * version tag of the user list, changes whenever a user is created,
+     * updated or changes status (also with the write-behind), without a query
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public String getUsersVersionTag() {
+        String tag = userListVersion.getTag();
+        if (presenceWriteBehind.isEnabled()) {
+            tag += "-" + presenceWriteBehind.getGeneration();
+        }
+        return tag;
+    }
+
+    /**
+     * version tag of a single user without loading the whole row
+     */
+    @Transactional(readOnly = true)
+    public Optional<String> getUserVersionTag(Long userId) {
+        return userRepository.findVersionById(userId).map(version -> versionTag(version.getId(), version.getVersion(),
+                presenceWriteBehind.isEnabled()
+                        ? presenceWriteBehind.statusOf(version.getId(), version.getStatus())
+                        : version.getStatus()));
+    }
+
+    /**
+     * the status is part of the tag because the write-behind changes it without a new version
+     */
+    public static String versionTag(User user) {
+        return versionTag(user.getId(), user.getVersion(), user.getStatus());
+    }
+
+    private static String versionTag(Long id, Long version, UserStatus status) {
+        return id + "-" + version + "-" + status;
+    }
+
+    /**
+     * case-insensitive username prefix search on the in-memory index, no database access
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public List<UsernameIndex.Entry> searchUsers(String prefix, UserStatus status, int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("Limit must be between 1 and %d!", MAX_PAGE_SIZE));//400
+        }
+        return usernameIndex.search(prefix, status, limit);
+    }
+
+    /**
+     * fetch at most limit users with an id greater than after (keyset pagination)
+     */
+    @Transactional(readOnly = true)
+    public List<UserGetDTO> getUsers(Long after, int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("Limit must be between 1 and %d!", MAX_PAGE_SIZE));//400
+        }
+        return withPresenceAll(userRepository.findUserGetDTOsByIdGreaterThan(after == null ? 0L : after,
+                PageRequest.of(0, limit)));
+    }
+
+    /**
+     * the online users are taken from the in-memory bitmap, only their rows are
+     * read (by id). Keyset paginated like getUsers(after, limit).
+     */
+    @Transactional(readOnly = true)
+    public List<UserGetDTO> getUsers(UserStatus status, Long after, int limit) {
+        if (status != UserStatus.ONLINE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Only online users can be listed by status!");//400
+        }
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("Limit must be between 1 and %d!", MAX_PAGE_SIZE));//400
+        }
+        List<Long> userIds = onlineUsers.page(after, limit);
+        if (userIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<UserGetDTO> users = userRepository.findUserGetDTOsByIdIn(userIds);
+        // the bitmap also knows the statuses the write-behind has not written yet
+        users.forEach(user -> user.setStatus(UserStatus.ONLINE));
+        return users;
+    }
+
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public long countOnlineUsers() {
+        return onlineUsers.count();
+    }
+
+    /**
+     * which of the given users (e.g. a friend list) are online, no database access
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public List<Long> getOnlineUserIds(List<Long> userIds) {
+        if (userIds.size() > MAX_BATCH_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("At most %d user ids can be checked at once!", MAX_BATCH_SIZE));//400
+        }
+        return onlineUsers.intersect(userIds);
+    }
+
+    /**
+     * hand every user to the consumer one by one, each user is detached again
+     * after it was consumed so the persistence context does not grow with the table
+     */
+    @Transactional(readOnly = true)
+    public void streamUsers(Consumer<User> consumer) {
+        try (Stream<User> users = userRepository.streamAllOrderedById()) {
+            users.forEach(user -> {
+                consumer.accept(withPresence(user));
+                entityManager.detach(user);
+            });
+        }
+    }
+
+  public User createUser(User newUser) {
+    prepareNewUser(newUser);
     if(checkIfUsernameExist(newUser)){
         throw new ResponseStatusException(HttpStatus.CONFLICT, "Username is taken!");//409
     }
+    if (newUser.getPassword() == null) {
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Password is required!");//400
+    }
+    newUser.setPassword(passwordHasher.hash(newUser.getPassword()));
     // saves the given entity but data is only persisted in the database once
     // flush() is called
     newUser = userRepository.save(newUser);
     userRepository.flush();
+    eventPublisher.publishEvent(UserChangedEvent.of(UserChangedEvent.Type.CREATED, newUser));
 
     log.debug("Created Information for User: {}", newUser);
     return newUser;
   }
 
-  public void update(Long userId, UserPostDTO userPostDTO){
-      User userOld = userRepository.findById(userId).get();
-      User userByUsername = userRepository.findByUsername(userPostDTO.getUsername());
+    /**
+     * registers a whole cohort at once: the usernames are checked with one
+     * set-based query per 1000 names and the accepted users are inserted in
+     * JDBC batches. Invalid or taken usernames are rejected per item instead
+     * of failing the whole batch. The passwords are hashed between the check
+     * and the inserts, outside of any transaction, so the minutes of bcrypt
+     * work of a large batch do not hold a database connection.
+     *
+     * @return one result per input user, in input order
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public List<UserCreationResult> createUsers(List<User> newUsers) {
+        if (newUsers.isEmpty() || newUsers.size() > MAX_BATCH_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("A batch must contain between 1 and %d users!", MAX_BATCH_SIZE));//400
+        }
+        // on the primary, a read replica may not have the latest registrations yet
+        Set<String> takenUsernames = transaction.execute(status -> findTakenUsernames(newUsers));
 
-      String baseErrorMessage = "The %s provided %s already taken!";
-      if (userByUsername != null && userOld != userByUsername) {
-          throw new ResponseStatusException(HttpStatus.CONFLICT,
-                  String.format(baseErrorMessage, "username", "is"));
-      }
+        List<UserCreationResult> results = new ArrayList<>(newUsers.size());
+        List<User> acceptedUsers = new ArrayList<>(newUsers.size());
+        for (User newUser : newUsers) {
+            String username = newUser.getUsername();
+            if (username == null || newUser.getPassword() == null) {
+                results.add(UserCreationResult.rejected(username, HttpStatus.BAD_REQUEST,
+                        "Username and password are required!"));
+            }
+            // also rejects the second occurrence of a username within the batch
+            else if (!takenUsernames.add(username)) {
+                results.add(UserCreationResult.rejected(username, HttpStatus.CONFLICT, "Username is taken!"));
+            }
+            else {
+                prepareNewUser(newUser);
+                acceptedUsers.add(newUser);
+                results.add(UserCreationResult.created(newUser));
+            }
+        }
 
-      if (userPostDTO.getUsername()!=null) {
-          userOld.setUsername(userPostDTO.getUsername());
+        List<String> rawPasswords = new ArrayList<>(acceptedUsers.size());
+        for (User acceptedUser : acceptedUsers) {
+            rawPasswords.add(acceptedUser.getPassword());
+        }
+        List<String> hashedPasswords = passwordHasher.hashAll(rawPasswords);
+        for (int i = 0; i < acceptedUsers.size(); i++) {
+            acceptedUsers.get(i).setPassword(hashedPasswords.get(i));
+        }
+
+        transaction.executeWithoutResult(status -> {
+            for (int start = 0; start < acceptedUsers.size(); start += INSERT_CHUNK_SIZE) {
+                userRepository.saveAll(acceptedUsers.subList(start, Math.min(acceptedUsers.size(), start + INSERT_CHUNK_SIZE)));
+                userRepository.flush();
+                // the inserted users are not needed anymore, keep flushes from re-checking them
+                entityManager.clear();
+            }
+            // published in the transaction, the listeners see them after the commit
+            for (User createdUser : acceptedUsers) {
+                eventPublisher.publishEvent(UserChangedEvent.of(UserChangedEvent.Type.CREATED, createdUser));
+            }
+        });
+
+        log.debug("Created {} of {} users in a batch", acceptedUsers.size(), newUsers.size());
+        return results;
+    }
+
+    private Set<String> findTakenUsernames(List<User> newUsers) {
+        List<String> usernames = new ArrayList<>(newUsers.size());
+        for (User newUser : newUsers) {
+            if (newUser.getUsername() != null) {
+                usernames.add(newUser.getUsername());
+            }
+        }
+        Set<String> takenUsernames = new HashSet<>();
+        for (int start = 0; start < usernames.size(); start += IN_CLAUSE_CHUNK_SIZE) {
+            takenUsernames.addAll(userRepository.findExistingUsernames(
+                    usernames.subList(start, Math.min(usernames.size(), start + IN_CLAUSE_CHUNK_SIZE))));
+        }
+        return takenUsernames;
+    }
+
+    /**
+     * a registered user gets a token and is online right away
+     */
+    private void prepareNewUser(User newUser) {
+        newUser.setToken(UUID.randomUUID().toString());
+        newUser.setStatus(UserStatus.ONLINE);
+        newUser.setCreationDate(Instant.now());
+    }
+
+  public void update(Long userId, UserPostDTO userPostDTO){
+      User userOld = userRepository.findById(userId)
+              .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found!"));//404
+
+      // only a changed username needs the uniqueness check
+      String newUsername = userPostDTO.getUsername();
+      if (newUsername != null && !newUsername.equals(userOld.getUsername())) {
+          String baseErrorMessage = "The %s provided %s already taken!";
+          if (userRepository.findByUsername(newUsername) != null) {
+              throw new ResponseStatusException(HttpStatus.CONFLICT,
+                      String.format(baseErrorMessage, "username", "is"));
+          }
+          userOld.setUsername(newUsername);
       }
       if (userPostDTO.getBirthday()!=null) {
           userOld.setBirthday(userPostDTO.getBirthday());
       }
       userRepository.save(userOld);
       userRepository.flush();
+      eventPublisher.publishEvent(UserChangedEvent.of(UserChangedEvent.Type.UPDATED, userOld));
   }
 
+  @Transactional(readOnly = true)
   public User getUserByUsername(String username) { return userRepository.findByUsername(username); }
 
+    @Transactional(readOnly = true)
     public Optional<User> getUserById(Long userId) {
-        return userRepository.findById(userId);
+        return userRepository.findById(userId).map(this::withPresence);
     }
 
-    public User getUserByToken(String token) {return userRepository.findByToken(token);}
+    /**
+     * the token -> user id mapping is served from the session cache, a miss
+     * falls back to findByToken and fills the cache. Signed tokens are checked
+     * without any lookup, only the user is loaded (by id, from the cache).
+     */
+    @Transactional(readOnly = true)
+    public User getUserByToken(String token) {
+        return findUserByToken(token);
+    }
+
+    /**
+     * like getUserByToken, but never served by the read replica: for lookups
+     * followed by a write (logout, heartbeat) and for tokens that were just
+     * issued by a login the replica may not have seen yet
+     */
+    public User getUserByTokenFromPrimary(String token) {
+        return findUserByToken(token);
+    }
+
+    private User findUserByToken(String token) {
+        if (token == null) {
+            return null;
+        }
+        if (accessTokens.isSigned()) {
+            Long signedUserId = accessTokens.verify(token);
+            if (signedUserId == null) {
+                return null;
+            }
+            return userRepository.findById(signedUserId).map(this::withPresence).orElse(null);
+        }
+        Long userId = sessionCache.get(token);
+        if (userId != null) {
+            Optional<User> cachedUser = userRepository.findById(userId);
+            if (cachedUser.isPresent() && token.equals(cachedUser.get().getToken())) {
+                return withPresence(cachedUser.get());
+            }
+            // the token was rotated or the user deleted in the meantime
+            sessionCache.invalidate(token);
+        }
+        User foundUser = userRepository.findByToken(token);
+        if (foundUser != null) {
+            sessionCache.put(token, foundUser.getId());
+            withPresence(foundUser);
+        }
+        return foundUser;
+    }
 
   /**
    * This is a helper method that will check the uniqueness criteria of the
@@ -113,19 +433,113 @@ public class UserService {
     /**
      * add login check
      */
+  @Transactional(readOnly = true)
   public boolean checkIfUsernameExist(User user){
       User userByUsername = userRepository.findByUsername(user.getUsername());
       return userByUsername != null;
   }
-  public boolean checkIfPasswordMatch(User user){
-      User userByUsername = userRepository.findByUsername(user.getUsername());
-      return userByUsername.getPassword().equals(user.getPassword());
+
+    /**
+     * login check with a single lookup: loads the user by username and
+     * verifies the password against the loaded row. A plaintext or outdated
+     * password hash is replaced by a current hash on the way.
+     *
+     * @return the authenticated user
+     * @throws org.springframework.web.server.ResponseStatusException 401 for an
+     *         unknown username or a wrong password
+     */
+  public User authenticate(String username, String password){
+      User userByUsername = username == null ? null : userRepository.findByUsername(username);
+      if (userByUsername == null) {
+          throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid username!");//401
+      }
+      if (!passwordHasher.matches(password, userByUsername.getPassword())) {
+          throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid password!");//401
+      }
+      if (passwordHasher.needsRehash(userByUsername.getPassword())) {
+          userByUsername.setPassword(passwordHasher.hash(password));
+      }
+      return userByUsername;
   }
 
     public void login(User foundUser){
-        foundUser.setStatus(UserStatus.ONLINE);
+        changeStatus(foundUser, UserStatus.ONLINE);
     }
     public void logout(User foundUser){
-        foundUser.setStatus(UserStatus.OFFLINE);
+        changeStatus(foundUser, UserStatus.OFFLINE);
+        sessionCache.invalidate(foundUser.getToken());
+    }
+
+    /**
+     * defers the expiry of an online user. A user that was just set offline for
+     * missing the earlier heartbeats is logged in again, a logged out one is not.
+     */
+    public void heartbeat(User foundUser) {
+        if (foundUser.getStatus() == UserStatus.ONLINE) {
+            presenceExpiry.touch(foundUser.getId(), foundUser.getUsername());
+        }
+        else if (presenceExpiry.wasExpired(foundUser.getId())) {
+            login(foundUser);
+        }
+        else {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "User is logged out!");//401
+        }
+    }
+
+    /**
+     * without write-behind the managed user is updated on commit, with
+     * write-behind the transition goes to the presence table and the user
+     * is detached so the new status is not flushed right away
+     */
+    private void changeStatus(User user, UserStatus status) {
+        if (presenceWriteBehind.isEnabled()) {
+            presenceWriteBehind.record(user.getId(), status);
+            entityManager.detach(user);
+        }
+        else {
+            writable(user);
+        }
+        user.setStatus(status);
+        if (status == UserStatus.ONLINE && presenceExpiry.isEnabled()) {
+            // in the same update, an expiry running meanwhile sees the user as seen
+            user.setLastSeen(Instant.now());
+        }
+        eventPublisher.publishEvent(UserChangedEvent.of(UserChangedEvent.Type.STATUS, user));
+    }
+
+    /**
+     * a user loaded by one of the read-only methods earlier in the request
+     * stays read-only in the request's persistence context, changes to it
+     * would not be flushed
+     */
+    private void writable(User user) {
+        if (entityManager.contains(user)) {
+            Session session = entityManager.unwrap(Session.class);
+            if (session.isReadOnly(user)) {
+                session.setReadOnly(user, false);
+            }
+        }
+    }
+
+    /**
+     * shows a status that was recorded by the write-behind but not written yet,
+     * the user is detached first so this does not cause an update
+     */
+    private User withPresence(User user) {
+        if (presenceWriteBehind.isEnabled()) {
+            UserStatus status = presenceWriteBehind.statusOf(user.getId(), user.getStatus());
+            if (status != user.getStatus()) {
+                entityManager.detach(user);
+                user.setStatus(status);
+            }
+        }
+        return user;
+    }
+
+    private List<UserGetDTO> withPresenceAll(List<UserGetDTO> users) {
+        if (presenceWriteBehind.isEnabled()) {
+            users.forEach(user -> user.setStatus(presenceWriteBehind.statusOf(user.getId(), user.getStatus())));
+        }
+        return users;
     }
 }
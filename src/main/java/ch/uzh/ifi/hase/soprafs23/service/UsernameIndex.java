@@ -0,0 +1,188 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.event.UserChangedEvent;
+import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Username Index
+ * In-memory index of all usernames, sorted case-insensitively, for prefix
+ * search (search-as-you-type) without touching the database. It is filled
+ * once on startup and afterwards kept up to date from the UserChangedEvents
+ * of the UserService. A prefix query only visits the matching range of the
+ * sorted map, a query for one status the range of that status' own map.
+ */
+@Component
+public class UsernameIndex {
+
+  private final Logger log = LoggerFactory.getLogger(UsernameIndex.class);
+
+  // keys are the lower case username + \0 + username: sorted case-insensitively, but two
+  // usernames that differ only in case are two different users and need two keys
+  private final ConcurrentSkipListMap<String, Entry> byName = new ConcurrentSkipListMap<>();
+  private final Map<UserStatus, ConcurrentSkipListMap<String, Entry>> byStatus = new EnumMap<>(UserStatus.class);
+  private final Map<Long, Entry> byId = new ConcurrentHashMap<>();
+
+  private final UserRepository userRepository;
+  private final TransactionTemplate transaction;
+
+  @Autowired
+  public UsernameIndex(@Qualifier("userRepository") UserRepository userRepository,
+                       PlatformTransactionManager transactionManager) {
+    this.userRepository = userRepository;
+    this.transaction = new TransactionTemplate(transactionManager);
+    this.transaction.setReadOnly(true);
+    for (UserStatus status : UserStatus.values()) {
+      byStatus.put(status, new ConcurrentSkipListMap<>());
+    }
+  }
+
+  /**
+   * loads the users stored before the start, an event that arrived meanwhile is newer and wins
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void load() {
+    AtomicInteger loaded = new AtomicInteger();
+    transaction.executeWithoutResult(tx -> {
+      try (Stream<User> users = userRepository.streamAllOrderedById()) {
+        users.forEach(user -> {
+          if (index(user.getId(), user.getUsername(), user.getStatus(), Change.NONE_IF_INDEXED)) {
+            loaded.incrementAndGet();
+          }
+        });
+      }
+    });
+    log.info("Indexed {} usernames", loaded.get());
+  }
+
+  /**
+   * a status change keeps the indexed username, a delayed status event must not undo a rename
+   */
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onUserChanged(UserChangedEvent event) {
+    boolean statusOnly = event.getType() == UserChangedEvent.Type.STATUS
+        || event.getType() == UserChangedEvent.Type.EXPIRED;
+    index(event.getUserId(), event.getUsername(), event.getStatus(), statusOnly ? Change.STATUS : Change.ALL);
+  }
+
+  /**
+   * @param prefix matched case-insensitively, empty matches everybody
+   * @param status only users with this status, null for all
+   * @return at most limit users ordered by username
+   */
+  public List<Entry> search(String prefix, UserStatus status, int limit) {
+    String lowerPrefix = prefix == null ? "" : prefix.toLowerCase(Locale.ROOT);
+    ConcurrentNavigableMap<String, Entry> names = status == null ? byName : byStatus.get(status);
+    ConcurrentNavigableMap<String, Entry> range = lowerPrefix.isEmpty()
+        ? names
+        : names.subMap(lowerPrefix, true, lowerPrefix + Character.MAX_VALUE, false);
+
+    List<Entry> result = new ArrayList<>(Math.min(limit, 16));
+    for (Entry entry : range.values()) {
+      if (result.size() == limit) {
+        break;
+      }
+      result.add(entry);
+    }
+    return result;
+  }
+
+  public int size() {
+    return byId.size();
+  }
+
+  /**
+   * @return the username of the user or null if it is not indexed
+   */
+  public String getUsername(Long userId) {
+    Entry entry = byId.get(userId);
+    return entry == null ? null : entry.getUsername();
+  }
+
+  void put(Long userId, String username, UserStatus status) {
+    index(userId, username, status, Change.ALL);
+  }
+
+  private enum Change {
+    ALL, STATUS, NONE_IF_INDEXED
+  }
+
+  /**
+   * all changes of one user, renames and status changes alike, happen inside
+   * compute on its byId entry, so concurrent changes of the user cannot leave
+   * a stale entry behind. The old entry is removed by value: its name can
+   * meanwhile belong to another user who was renamed to it.
+   *
+   * @return false if the user was already indexed and nothing changed
+   */
+  private boolean index(Long userId, String username, UserStatus status, Change change) {
+    boolean[] indexed = new boolean[1];
+    byId.compute(userId, (id, previous) -> {
+      if (previous != null && change == Change.NONE_IF_INDEXED) {
+        return previous;
+      }
+      String name = previous != null && change == Change.STATUS ? previous.getUsername() : username;
+      Entry entry = new Entry(userId, name, status);
+      byName.put(entry.key(), entry);
+      byStatus.get(status).put(entry.key(), entry);
+      if (previous != null) {
+        // a no-op for the maps in which the entry was just replaced
+        byName.remove(previous.key(), previous);
+        byStatus.get(previous.getStatus()).remove(previous.key(), previous);
+      }
+      indexed[0] = true;
+      return entry;
+    });
+    return indexed[0];
+  }
+
+  public static final class Entry {
+    private final Long id;
+    private final String username;
+    private final UserStatus status;
+
+    public Entry(Long id, String username, UserStatus status) {
+      this.id = id;
+      this.username = username;
+      this.status = status;
+    }
+
+    public Long getId() {
+      return id;
+    }
+
+    public String getUsername() {
+      return username;
+    }
+
+    public UserStatus getStatus() {
+      return status;
+    }
+
+    String key() {
+      return username.toLowerCase(Locale.ROOT) + '\0' + username;
+    }
+  }
+}
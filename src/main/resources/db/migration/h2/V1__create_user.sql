@@ -0,0 +1,24 @@
+-- ids are handed out in blocks of 50, see User.id
+CREATE SEQUENCE USER_SEQUENCE START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE USER (
+    ID             BIGINT       NOT NULL,
+    USERNAME       VARCHAR(255) NOT NULL,
+    USERNAME_LOWER VARCHAR(255) AS LOWER(USERNAME),
+    PASSWORD       VARCHAR(255) NOT NULL,
+    TOKEN          VARCHAR(255) NOT NULL,
+    BIRTHDAY       TIMESTAMP,
+    CREATION_DATE  TIMESTAMP    NOT NULL,
+    STATUS         INTEGER      NOT NULL,
+    VERSION        BIGINT       NOT NULL,
+    CONSTRAINT USER_PK PRIMARY KEY (ID)
+);
+
+-- findByUsername, findExistingUsernames (login, registration)
+CREATE UNIQUE INDEX USER_USERNAME_IDX ON USER (USERNAME);
+-- findByUsernameLower
+CREATE INDEX USER_USERNAME_LOWER_IDX ON USER (USERNAME_LOWER);
+-- findByToken (every authenticated request on a session cache miss)
+CREATE UNIQUE INDEX USER_TOKEN_IDX ON USER (TOKEN);
+-- presence listings filter on status and page by id
+CREATE INDEX USER_STATUS_IDX ON USER (STATUS, ID);
@@ -0,0 +1,2 @@
+-- birthdays are calendar dates (User.birthday is a LocalDate), drop the time part
+ALTER TABLE USER ALTER COLUMN BIRTHDAY DATE;
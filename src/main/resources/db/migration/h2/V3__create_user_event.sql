@@ -0,0 +1,14 @@
+-- outbox of the multi-node mode, see JdbcClusterEventBus; rows are purged after a few minutes
+CREATE TABLE USER_EVENT (
+    ID         BIGINT       AUTO_INCREMENT NOT NULL,
+    NODE_ID    VARCHAR(64)  NOT NULL,
+    TYPE       VARCHAR(16)  NOT NULL,
+    USER_ID    BIGINT       NOT NULL,
+    USERNAME   VARCHAR(255) NOT NULL,
+    STATUS     VARCHAR(16)  NOT NULL,
+    CREATED_AT TIMESTAMP    NOT NULL,
+    CONSTRAINT USER_EVENT_PK PRIMARY KEY (ID)
+);
+
+-- purge by age
+CREATE INDEX USER_EVENT_CREATED_AT_IDX ON USER_EVENT (CREATED_AT);
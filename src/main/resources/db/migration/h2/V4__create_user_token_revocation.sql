@@ -0,0 +1,8 @@
+-- logouts in the signed token mode, see TokenRevocationStore; rows are purged once the revoked tokens expired
+CREATE TABLE USER_TOKEN_REVOCATION (
+    USER_ID       BIGINT NOT NULL,
+    REVOKED_UNTIL BIGINT NOT NULL
+);
+
+-- loading and purging by age
+CREATE INDEX USER_TOKEN_REVOCATION_REVOKED_UNTIL_IDX ON USER_TOKEN_REVOCATION (REVOKED_UNTIL);
@@ -0,0 +1,25 @@
+-- ids are handed out in blocks of 50, see User.id
+CREATE SEQUENCE user_sequence START WITH 1 INCREMENT BY 50;
+
+-- "user" is a reserved word in PostgreSQL, the postgres profile quotes all identifiers
+CREATE TABLE "user" (
+    id             BIGINT       NOT NULL,
+    username       VARCHAR(255) NOT NULL,
+    username_lower VARCHAR(255) GENERATED ALWAYS AS (lower(username)) STORED,
+    password       VARCHAR(255) NOT NULL,
+    token          VARCHAR(255) NOT NULL,
+    birthday       TIMESTAMP,
+    creation_date  TIMESTAMP    NOT NULL,
+    status         INTEGER      NOT NULL,
+    version        BIGINT       NOT NULL,
+    CONSTRAINT user_pk PRIMARY KEY (id)
+);
+
+-- findByUsername, findExistingUsernames (login, registration)
+CREATE UNIQUE INDEX user_username_idx ON "user" (username);
+-- findByUsernameLower
+CREATE INDEX user_username_lower_idx ON "user" (username_lower);
+-- findByToken (every authenticated request on a session cache miss)
+CREATE UNIQUE INDEX user_token_idx ON "user" (token);
+-- presence listings filter on status and page by id
+CREATE INDEX user_status_idx ON "user" (status, id);
@@ -0,0 +1,14 @@
+-- outbox of the multi-node mode, see JdbcClusterEventBus; rows are purged after a few minutes
+CREATE TABLE user_event (
+    id         BIGINT       GENERATED BY DEFAULT AS IDENTITY,
+    node_id    VARCHAR(64)  NOT NULL,
+    type       VARCHAR(16)  NOT NULL,
+    user_id    BIGINT       NOT NULL,
+    username   VARCHAR(255) NOT NULL,
+    status     VARCHAR(16)  NOT NULL,
+    created_at TIMESTAMP    NOT NULL,
+    CONSTRAINT user_event_pk PRIMARY KEY (id)
+);
+
+-- purge by age
+CREATE INDEX user_event_created_at_idx ON user_event (created_at);
@@ -0,0 +1,8 @@
+-- logouts in the signed token mode, see TokenRevocationStore; rows are purged once the revoked tokens expired
+CREATE TABLE user_token_revocation (
+    user_id       BIGINT NOT NULL,
+    revoked_until BIGINT NOT NULL
+);
+
+-- loading and purging by age
+CREATE INDEX user_token_revocation_revoked_until_idx ON user_token_revocation (revoked_until);
@@ -0,0 +1,3 @@
+-- last sign of life of an online user, written on login and, with the cluster
+-- profile, by the heartbeats every instance receives (see PresenceExpiry)
+ALTER TABLE "user" ADD COLUMN last_seen TIMESTAMP;
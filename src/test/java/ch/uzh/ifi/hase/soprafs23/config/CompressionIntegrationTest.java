@@ -0,0 +1,77 @@
+package ch.uzh.ifi.hase.soprafs23.config;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * CompressionIntegrationTest
+ * Compression is done by Tomcat, so this runs against the real server
+ * instead of MockMvc.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class CompressionIntegrationTest {
+
+  @LocalServerPort
+  private int port;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  private final HttpClient httpClient = HttpClient.newHttpClient();
+
+  @BeforeEach
+  public void setup() {
+    userRepository.deleteAll();
+    // enough users for a list above the 1 KB threshold
+    List<User> users = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      User user = new User();
+      user.setUsername("user-" + i);
+      user.setPassword("password");
+      user.setToken("token-" + i);
+      user.setStatus(UserStatus.OFFLINE);
+      user.setCreationDate(Instant.now());
+      users.add(user);
+    }
+    userRepository.saveAll(users);
+  }
+
+  @Test
+  public void getAllUsers_acceptsGzip_compressedWithWeakETag() throws Exception {
+    HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/users"))
+        .header("Accept-Encoding", "gzip")
+        .build();
+
+    HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+
+    assertEquals(200, response.statusCode());
+    assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElse(null));
+    assertTrue(response.headers().firstValue("ETag").orElse("").startsWith("W/\""));
+    // Tomcat merges and lower-cases the Vary field names
+    List<String> vary = new ArrayList<>();
+    response.headers().allValues("Vary").forEach(value -> {
+      for (String name : value.split(",")) {
+        vary.add(name.trim().toLowerCase(Locale.ROOT));
+      }
+    });
+    assertTrue(vary.containsAll(List.of("accept", "accept-encoding")), vary.toString());
+  }
+}
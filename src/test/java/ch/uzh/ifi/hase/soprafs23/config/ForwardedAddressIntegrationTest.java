@@ -0,0 +1,55 @@
+package ch.uzh.ifi.hase.soprafs23.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * ForwardedAddressIntegrationTest
+ * Runs against the real Tomcat, which resolves the client address from
+ * X-Forwarded-For before /login throttles per address. The test client
+ * connects from localhost, a trusted proxy address.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+    "users.login.rate-limit.address.per-minute=1",
+    "users.login.rate-limit.address.burst=1",
+    "users.login.rate-limit.username.burst=100"})
+public class ForwardedAddressIntegrationTest {
+
+  @LocalServerPort
+  private int port;
+
+  private final HttpClient httpClient = HttpClient.newHttpClient();
+
+  @Test
+  public void login_throttledPerForwardedClient() throws Exception {
+    assertEquals(401, login("203.0.113.7", "a"));
+    assertEquals(429, login("203.0.113.7", "b"));
+
+    // another client behind the same proxy has its own limit
+    assertEquals(401, login("203.0.113.8", "c"));
+  }
+
+  @Test
+  public void login_frontEndHopSkipped() throws Exception {
+    assertEquals(401, login("203.0.113.9, 35.191.0.1", "d"));
+    assertEquals(401, login("203.0.113.10, 35.191.0.1", "e"));
+  }
+
+  private int login(String forwardedFor, String username) throws Exception {
+    String body = "{\"username\": \"" + username + "\", \"password\": \"password\"}";
+    HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/login"))
+        .header("Content-Type", "application/json")
+        .header("X-Forwarded-For", forwardedFor)
+        .POST(HttpRequest.BodyPublishers.ofString(body))
+        .build();
+    return httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+  }
+}
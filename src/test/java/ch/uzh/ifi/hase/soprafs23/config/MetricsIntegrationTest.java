@@ -0,0 +1,44 @@
+package ch.uzh.ifi.hase.soprafs23.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * MetricsIntegrationTest
+ * Checks that request, repository, Hibernate, pool and JVM metrics all end up
+ * in the Prometheus scrape.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@AutoConfigureMetrics
+public class MetricsIntegrationTest {
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Test
+  public void prometheusEndpoint_containsUserMetrics() throws Exception {
+    mockMvc.perform(get("/users")).andExpect(status().isOk());
+
+    mockMvc.perform(get("/actuator/prometheus"))
+        .andExpect(status().isOk())
+        .andExpect(content().string(containsString("http_server_requests_seconds_bucket{")))
+        .andExpect(content().string(containsString("uri=\"/users\"")))
+        .andExpect(content().string(containsString("users_repository_calls_seconds_count{method=\"findAllUserGetDTOs\"")))
+        .andExpect(content().string(containsString("hibernate_query_executions_total")))
+        .andExpect(content().string(containsString("hibernate_second_level_cache_requests_total")))
+        .andExpect(content().string(containsString("hikaricp_connections_pending")))
+        .andExpect(content().string(containsString("jvm_gc_memory_allocated_bytes_total")))
+        .andExpect(content().string(containsString("users_session_cache_requests_total")))
+        .andExpect(content().string(containsString("users_password_queue_depth")));
+  }
+}
@@ -0,0 +1,125 @@
+package ch.uzh.ifi.hase.soprafs23.config;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.Session;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * ReadReplicaIntegrationTest
+ * The replica is a second pool on the same in-memory database, a local
+ * stand-in for a replicated one.
+ */
+@SpringBootTest(properties = {
+    "users.datasource.replica.url=jdbc:h2:mem:testdb",
+    "users.datasource.replica.hikari.maximum-pool-size=1",
+    "users.datasource.replica.hikari.connection-timeout=250"})
+@AutoConfigureMockMvc
+public class ReadReplicaIntegrationTest {
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private EntityManager entityManager;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Autowired
+  @Qualifier("primaryDataSource")
+  private HikariDataSource primaryDataSource;
+
+  @Autowired
+  @Qualifier("replicaDataSource")
+  private HikariDataSource replicaDataSource;
+
+  @BeforeEach
+  public void setup() {
+    userRepository.deleteAll();
+  }
+
+  @Test
+  public void readOnlyTransaction_usesReplica() {
+    TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+    readOnly.setReadOnly(true);
+
+    readOnly.executeWithoutResult(status -> entityManager.unwrap(Session.class).doWork(connection -> {
+      // the lazy connection proxy only fetches a connection when it is used
+      try (Statement statement = connection.createStatement()) {
+        statement.execute("SELECT 1");
+      }
+      assertEquals(1, replicaDataSource.getHikariPoolMXBean().getActiveConnections());
+      assertEquals(0, primaryDataSource.getHikariPoolMXBean().getActiveConnections());
+    }));
+  }
+
+  @Test
+  public void logout_readThenWriteInOneRequest_isWritten() throws Exception {
+    User user = new User();
+    user.setUsername("testUsername");
+    user.setPassword("password");
+    user.setToken("token");
+    user.setStatus(UserStatus.ONLINE);
+    user.setCreationDate(Instant.now());
+    user = userRepository.saveAndFlush(user);
+
+    mockMvc.perform(put("/logout")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"token\": \"token\"}"))
+        .andExpect(status().isOk());
+
+    assertEquals(UserStatus.OFFLINE, userRepository.findById(user.getId()).get().getStatus());
+  }
+
+  @Test
+  public void tokenLookups_freshToken_servedByPrimary() throws Exception {
+    User user = new User();
+    user.setUsername("testUsername");
+    user.setPassword("password");
+    user.setToken("token");
+    user.setStatus(UserStatus.ONLINE);
+    user.setCreationDate(Instant.now());
+    userRepository.saveAndFlush(user);
+
+    // stands in for a replica that has not caught up yet: its only connection is taken, any read on it fails
+    try (Connection taken = replicaDataSource.getConnection()) {
+      mockMvc.perform(post("/users/localUser")
+              .contentType(MediaType.APPLICATION_JSON)
+              .content("{\"token\": \"token\"}"))
+          .andExpect(status().isOk());
+      mockMvc.perform(put("/heartbeat")
+              .contentType(MediaType.APPLICATION_JSON)
+              .content("{\"token\": \"token\"}"))
+          .andExpect(status().isNoContent());
+      mockMvc.perform(put("/logout")
+              .contentType(MediaType.APPLICATION_JSON)
+              .content("{\"token\": \"token\"}"))
+          .andExpect(status().isOk());
+    }
+  }
+}
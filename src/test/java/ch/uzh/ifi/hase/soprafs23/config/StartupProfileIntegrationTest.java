@@ -0,0 +1,44 @@
+package ch.uzh.ifi.hase.soprafs23.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * StartupProfileIntegrationTest
+ * With lazy initialization the beans with scheduled work still have to be
+ * created on startup, everything else on first use.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("startup")
+public class StartupProfileIntegrationTest {
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Autowired
+  private ConfigurableListableBeanFactory beanFactory;
+
+  @Test
+  public void startupProfile_scheduledBeansEager_controllersLazy() throws Exception {
+    assertTrue(beanFactory.containsSingleton("presenceWriteBehind"));
+    assertTrue(beanFactory.containsSingleton("accessTokens"));
+    assertTrue(beanFactory.containsSingleton("presenceExpiry"));
+    assertFalse(beanFactory.containsSingleton("userController"));
+
+    mockMvc.perform(get("/")).andExpect(status().isOk());
+    mockMvc.perform(get("/users")).andExpect(status().isOk());
+
+    assertTrue(beanFactory.containsSingleton("userController"));
+  }
+}
@@ -0,0 +1,36 @@
+package ch.uzh.ifi.hase.soprafs23.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class TransactionRoutingDataSourceTest {
+
+  private final Connection primaryConnection = Mockito.mock(Connection.class);
+  private final Connection replicaConnection = Mockito.mock(Connection.class);
+
+  @AfterEach
+  public void tearDown() {
+    TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+  }
+
+  @Test
+  public void getConnection_routesByTransactionReadOnlyFlag() throws Exception {
+    DataSource primary = Mockito.mock(DataSource.class);
+    DataSource replica = Mockito.mock(DataSource.class);
+    Mockito.when(primary.getConnection()).thenReturn(primaryConnection);
+    Mockito.when(replica.getConnection()).thenReturn(replicaConnection);
+    TransactionRoutingDataSource dataSource = new TransactionRoutingDataSource(primary, replica);
+
+    assertSame(primaryConnection, dataSource.getConnection());
+
+    TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+    assertSame(replicaConnection, dataSource.getConnection());
+  }
+}
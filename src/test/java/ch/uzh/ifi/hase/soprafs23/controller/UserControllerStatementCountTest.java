@@ -0,0 +1,215 @@
+package ch.uzh.ifi.hase.soprafs23.controller;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs23.service.PasswordHasher;
+import ch.uzh.ifi.hase.soprafs23.service.UserService;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import javax.persistence.EntityManagerFactory;
+import java.time.Instant;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * UserControllerStatementCountTest
+ * Runs the endpoints against the real database and counts the SQL statements
+ * Hibernate sends per request, so additional lookups cannot sneak back in.
+ */
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@AutoConfigureMockMvc
+public class UserControllerStatementCountTest {
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  private PasswordHasher passwordHasher;
+
+  private Statistics statistics;
+
+  private User user;
+
+  @BeforeEach
+  public void setup() {
+    userRepository.deleteAll();
+
+    User newUser = new User();
+    newUser.setUsername("testUsername");
+    newUser.setPassword(passwordHasher.hash("password"));
+    newUser.setToken("token");
+    newUser.setStatus(UserStatus.OFFLINE);
+    newUser.setCreationDate(Instant.now());
+    user = userRepository.saveAndFlush(newUser);
+
+    // count the cold path, the *_cached tests warm the second-level cache themselves
+    SessionFactory sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+    sessionFactory.getCache().evictAllRegions();
+    statistics = sessionFactory.getStatistics();
+    statistics.clear();
+  }
+
+  @Test
+  public void login_selectAndStatusUpdate() throws Exception {
+    mockMvc.perform(post("/login")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"username\": \"testUsername\", \"password\": \"password\"}"))
+        .andExpect(status().isOk());
+
+    assertEquals(2, statistics.getPrepareStatementCount(), "select by username + status update");
+  }
+
+  @Test
+  public void login_cached_statusUpdateOnly() throws Exception {
+    userRepository.findByUsername("testUsername");
+    statistics.clear();
+
+    mockMvc.perform(post("/login")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"username\": \"testUsername\", \"password\": \"password\"}"))
+        .andExpect(status().isOk());
+
+    assertEquals(1, statistics.getPrepareStatementCount(), "status update");
+    assertEquals(1, statistics.getNaturalIdCacheHitCount());
+  }
+
+  @Test
+  public void login_legacyPassword_rehashedOnce() throws Exception {
+    user.setPassword("password");
+    userRepository.saveAndFlush(user);
+    // the save put the user back into the second-level cache
+    entityManagerFactory.unwrap(SessionFactory.class).getCache().evictAllRegions();
+    statistics.clear();
+
+    mockMvc.perform(post("/login")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"username\": \"testUsername\", \"password\": \"password\"}"))
+        .andExpect(status().isOk());
+
+    assertEquals(3, statistics.getPrepareStatementCount(),
+        "select by username + password update + status update");
+  }
+
+  @Test
+  public void getUser_singleSelect() throws Exception {
+    mockMvc.perform(get("/users/" + user.getId()))
+        .andExpect(status().isOk());
+
+    assertEquals(1, statistics.getPrepareStatementCount(), "select by id");
+  }
+
+  @Test
+  public void getUser_cached_noSelect() throws Exception {
+    mockMvc.perform(get("/users/" + user.getId()))
+        .andExpect(status().isOk());
+    statistics.clear();
+
+    mockMvc.perform(get("/users/" + user.getId()))
+        .andExpect(status().isOk());
+
+    assertEquals(0, statistics.getPrepareStatementCount());
+    assertEquals(1, statistics.getSecondLevelCacheHitCount());
+  }
+
+  @Test
+  public void getUser_afterUpdate_notStale() throws Exception {
+    mockMvc.perform(get("/users/" + user.getId()))
+        .andExpect(status().isOk());
+    mockMvc.perform(put("/users/" + user.getId())
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"username\": \"newUsername\"}"))
+        .andExpect(status().isNoContent());
+
+    mockMvc.perform(get("/users/" + user.getId()))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.username").value("newUsername"));
+  }
+
+  @Test
+  public void getUser_afterStatusUpdate_onlyChangedUserEvicted() throws Exception {
+    User otherUser = new User();
+    otherUser.setUsername("otherUsername");
+    otherUser.setPassword(passwordHasher.hash("password"));
+    otherUser.setToken("otherToken");
+    otherUser.setStatus(UserStatus.OFFLINE);
+    otherUser.setCreationDate(Instant.now());
+    otherUser = userRepository.saveAndFlush(otherUser);
+    mockMvc.perform(get("/users/" + user.getId()))
+        .andExpect(status().isOk());
+    mockMvc.perform(get("/users/" + otherUser.getId()))
+        .andExpect(status().isOk());
+
+    userRepository.updateStatus(UserStatus.ONLINE, Collections.singletonList(user.getId()));
+    statistics.clear();
+
+    mockMvc.perform(get("/users/" + otherUser.getId()))
+        .andExpect(status().isOk());
+    assertEquals(0, statistics.getPrepareStatementCount(), "other user still cached");
+
+    mockMvc.perform(get("/users/" + user.getId()))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.status").value("ONLINE"));
+    assertEquals(1, statistics.getPrepareStatementCount(), "select by id");
+  }
+
+  @Test
+  public void updateUser_selectsAndUpdate() throws Exception {
+    mockMvc.perform(put("/users/" + user.getId())
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"username\": \"newUsername\"}"))
+        .andExpect(status().isNoContent());
+
+    assertEquals(3, statistics.getPrepareStatementCount(), "select by id + resolve username + update");
+  }
+
+  @Test
+  public void getUser_notModified_versionSelectOnly() throws Exception {
+    String eTag = "\"" + UserService.versionTag(user) + "\"";
+
+    mockMvc.perform(get("/users/" + user.getId()).header("If-None-Match", eTag))
+        .andExpect(status().isNotModified());
+
+    assertEquals(1, statistics.getPrepareStatementCount(), "select version by id");
+  }
+
+  @Test
+  public void getAllUsers_versionAndSelect() throws Exception {
+    mockMvc.perform(get("/users"))
+        .andExpect(status().isOk());
+
+    assertEquals(1, statistics.getPrepareStatementCount(), "select all, the version is kept in memory");
+    assertEquals(0, statistics.getEntityLoadCount(), "projection, no entities");
+  }
+
+  @Test
+  public void getAllUsers_notModified_versionOnly() throws Exception {
+    String eTag = mockMvc.perform(get("/users"))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getHeader("ETag");
+    statistics.clear();
+
+    mockMvc.perform(get("/users").header("If-None-Match", eTag))
+        .andExpect(status().isNotModified());
+
+    assertEquals(0, statistics.getPrepareStatementCount());
+  }
+}
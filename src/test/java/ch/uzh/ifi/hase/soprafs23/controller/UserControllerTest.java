@@ -2,10 +2,18 @@ package ch.uzh.ifi.hase.soprafs23.controller;
 
 import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserGetDTO;
 import ch.uzh.ifi.hase.soprafs23.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs23.exceptions.TooManyRequestsException;
+import ch.uzh.ifi.hase.soprafs23.service.AccessTokens;
+import ch.uzh.ifi.hase.soprafs23.service.LoginRateLimiter;
+import ch.uzh.ifi.hase.soprafs23.service.UserCreationResult;
 import ch.uzh.ifi.hase.soprafs23.service.UserService;
+import ch.uzh.ifi.hase.soprafs23.service.UsernameIndex;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,17 +25,24 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.web.server.ResponseStatusException;
 
-import java.text.SimpleDateFormat;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.BDDMockito.willThrow;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -46,16 +61,25 @@ public class UserControllerTest {
   @MockBean
   private UserService userService;
 
+  @MockBean
+  private LoginRateLimiter loginRateLimiter;
+
+  @MockBean
+  private AccessTokens accessTokens;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
   @Test
   public void givenUsers_whenGetUsers_thenReturnJsonArray() throws Exception {
     // given
-    User user = new User();
+    UserGetDTO user = new UserGetDTO();
     user.setUsername("firstname@lastname");
-    user.setCreationDate(new Date());
-    user.setBirthday(new Date());
+    user.setCreationDate(LocalDate.of(2023, 3, 1));
+    user.setBirthday(LocalDate.of(2000, 12, 24));
     user.setStatus(UserStatus.OFFLINE);
 
-    List<User> allUsers = Collections.singletonList(user);
+    List<UserGetDTO> allUsers = Collections.singletonList(user);
 
     // this mocks the UserService -> we define above what the userService should
     // return when getUsers() is called
@@ -63,17 +87,183 @@ public class UserControllerTest {
 
     // when
     MockHttpServletRequestBuilder getRequest = get("/users").contentType(MediaType.APPLICATION_JSON);
-    SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd");
 
     // then
     mockMvc.perform(getRequest).andExpect(status().isOk())
         .andExpect(jsonPath("$", hasSize(1)))
         .andExpect(jsonPath("$[0].username", is(user.getUsername())))
-        .andExpect(jsonPath("$[0].creationDate", is(formatter.format(user.getCreationDate()))))
-        .andExpect(jsonPath("$[0].birthday", is(formatter.format(user.getBirthday()))))
+        .andExpect(jsonPath("$[0].creationDate", is("2023-03-01")))
+        .andExpect(jsonPath("$[0].birthday", is("2000-12-24")))
         .andExpect(jsonPath("$[0].status", is(user.getStatus().toString())));
   }
 
+  @Test
+  public void givenCborAccepted_whenGetUsers_thenReturnCbor() throws Exception {
+    // given
+    UserGetDTO user = new UserGetDTO();
+    user.setId(1L);
+    user.setUsername("firstname@lastname");
+    user.setCreationDate(LocalDate.of(2023, 3, 1));
+    user.setStatus(UserStatus.ONLINE);
+
+    given(userService.getUsers()).willReturn(Collections.singletonList(user));
+
+    // when
+    MockHttpServletRequestBuilder getRequest = get("/users").accept("application/cbor");
+
+    // then
+    byte[] body = mockMvc.perform(getRequest)
+        .andExpect(status().isOk())
+        .andExpect(header().string("Content-Type", "application/cbor"))
+        .andReturn().getResponse().getContentAsByteArray();
+    JsonNode users = new CBORMapper().readTree(body);
+    assertEquals("firstname@lastname", users.get(0).get("username").asText());
+    assertEquals("2023-03-01", users.get(0).get("creationDate").asText());
+  }
+
+  @Test
+  public void givenMatchingETag_whenGetUsers_thenReturnNotModified() throws Exception {
+    // given
+    given(userService.getUsersVersionTag()).willReturn("2-7-2");
+
+    // when
+    MockHttpServletRequestBuilder getRequest = get("/users").header("If-None-Match", "W/\"1-1-1\", \"2-7-2\"");
+
+    // then
+    mockMvc.perform(getRequest).andExpect(status().isNotModified())
+        .andExpect(header().string("ETag", "W/\"2-7-2\""))
+        .andExpect(header().stringValues("Vary", hasItem("Accept, Accept-Encoding")));
+    Mockito.verify(userService, Mockito.never()).getUsers();
+  }
+
+  @Test
+  public void givenFullPage_whenGetUsersPage_thenReturnNextLink() throws Exception {
+    // given
+    UserGetDTO user = new UserGetDTO();
+    user.setId(5L);
+    user.setUsername("firstname@lastname");
+    user.setStatus(UserStatus.OFFLINE);
+
+    given(userService.getUsers(2L, 1)).willReturn(Collections.singletonList(user));
+
+    // when
+    MockHttpServletRequestBuilder getRequest = get("/users?limit=1&after=2").contentType(MediaType.APPLICATION_JSON);
+
+    // then
+    mockMvc.perform(getRequest).andExpect(status().isOk())
+        .andExpect(jsonPath("$", hasSize(1)))
+        .andExpect(jsonPath("$[0].id", is(5)))
+        .andExpect(header().string("Link", "<http://localhost/users?limit=1&after=5>; rel=\"next\""));
+  }
+
+  @Test
+  public void givenOnlineUsers_whenGetUsersByStatus_thenReturnOnlineUsers() throws Exception {
+    // given
+    UserGetDTO user = new UserGetDTO();
+    user.setId(5L);
+    user.setUsername("firstname@lastname");
+    user.setStatus(UserStatus.ONLINE);
+
+    given(userService.getUsers(UserStatus.ONLINE, null, UserService.MAX_PAGE_SIZE)).willReturn(Collections.singletonList(user));
+
+    // when
+    MockHttpServletRequestBuilder getRequest = get("/users?status=ONLINE").contentType(MediaType.APPLICATION_JSON);
+
+    // then
+    mockMvc.perform(getRequest).andExpect(status().isOk())
+        .andExpect(jsonPath("$", hasSize(1)))
+        .andExpect(jsonPath("$[0].status", is("ONLINE")));
+    Mockito.verify(userService, Mockito.never()).getUsers();
+  }
+
+  @Test
+  public void givenFullOnlinePage_whenGetUsersByStatus_thenReturnNextLink() throws Exception {
+    // given
+    UserGetDTO user = new UserGetDTO();
+    user.setId(5L);
+    user.setUsername("firstname@lastname");
+    user.setStatus(UserStatus.ONLINE);
+
+    given(userService.getUsers(UserStatus.ONLINE, 2L, 1)).willReturn(Collections.singletonList(user));
+
+    // when
+    MockHttpServletRequestBuilder getRequest = get("/users?status=ONLINE&limit=1&after=2")
+        .contentType(MediaType.APPLICATION_JSON);
+
+    // then
+    mockMvc.perform(getRequest).andExpect(status().isOk())
+        .andExpect(jsonPath("$", hasSize(1)))
+        .andExpect(header().string("Link", "<http://localhost/users?status=ONLINE&limit=1&after=5>; rel=\"next\""));
+  }
+
+  @Test
+  public void givenFriendIds_whenGetOnlineUserIds_thenReturnOnlineOnes() throws Exception {
+    // given
+    given(userService.getOnlineUserIds(Arrays.asList(3L, 4L, 7L))).willReturn(Arrays.asList(3L, 7L));
+    given(userService.countOnlineUsers()).willReturn(42L);
+
+    // when
+    MockHttpServletRequestBuilder postRequest = post("/users/online")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content("[3, 4, 7]");
+
+    // then
+    mockMvc.perform(postRequest).andExpect(status().isOk())
+        .andExpect(jsonPath("$", hasSize(2)))
+        .andExpect(jsonPath("$[1]", is(7)));
+    mockMvc.perform(get("/users/online/count")).andExpect(status().isOk())
+        .andExpect(content().string("42"));
+  }
+
+  @Test
+  public void givenPrefix_whenSearchUsers_thenReturnMatches() throws Exception {
+    // given
+    given(userService.searchUsers("al", UserStatus.ONLINE, 5)).willReturn(Arrays.asList(
+        new UsernameIndex.Entry(3L, "ALBERT", UserStatus.ONLINE),
+        new UsernameIndex.Entry(1L, "Alice", UserStatus.ONLINE)));
+
+    // when
+    MockHttpServletRequestBuilder getRequest = get("/users/search?q=al&status=ONLINE&limit=5");
+
+    // then
+    mockMvc.perform(getRequest).andExpect(status().isOk())
+        .andExpect(jsonPath("$", hasSize(2)))
+        .andExpect(jsonPath("$[0].id", is(3)))
+        .andExpect(jsonPath("$[1].username", is("Alice")))
+        .andExpect(jsonPath("$[1].status", is("ONLINE")));
+  }
+
+  @Test
+  public void givenUsers_whenStreamUsers_thenReturnJsonArray() throws Exception {
+    // given
+    User user = new User();
+    user.setId(1L);
+    user.setUsername("firstname@lastname");
+    user.setStatus(UserStatus.ONLINE);
+
+    User user2 = new User();
+    user2.setId(2L);
+    user2.setUsername("firstname2@lastname2");
+    user2.setStatus(UserStatus.OFFLINE);
+
+    willAnswer(invocation -> {
+      Consumer<User> consumer = invocation.getArgument(0);
+      consumer.accept(user);
+      consumer.accept(user2);
+      return null;
+    }).given(userService).streamUsers(Mockito.any());
+
+    // when
+    MockHttpServletRequestBuilder getRequest = get("/users/stream").contentType(MediaType.APPLICATION_JSON);
+
+    // then
+    mockMvc.perform(getRequest).andExpect(status().isOk())
+        .andExpect(jsonPath("$", hasSize(2)))
+        .andExpect(jsonPath("$[0].username", is(user.getUsername())))
+        .andExpect(jsonPath("$[1].username", is(user2.getUsername())))
+        .andExpect(jsonPath("$[1].status", is(user2.getStatus().toString())));
+  }
+
   @Test
   public void createUser_validInput_userCreated() throws Exception {
     // given
@@ -127,32 +317,105 @@ public class UserControllerTest {
                 .andExpect(status().isConflict());
     }
 
+    @Test
+    public void createUsers_batch_thenReturnResultPerUser() throws Exception {
+        // given
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("testUsername");
+        user.setToken("1");
+        user.setStatus(UserStatus.ONLINE);
+
+        given(userService.createUsers(Mockito.any())).willReturn(Arrays.asList(
+                UserCreationResult.created(user),
+                UserCreationResult.rejected("taken", HttpStatus.CONFLICT, "Username is taken!")));
+
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setPassword("p");
+        userPostDTO.setUsername("testUsername");
+        UserPostDTO takenUserPostDTO = new UserPostDTO();
+        takenUserPostDTO.setPassword("p");
+        takenUserPostDTO.setUsername("taken");
+
+        // when
+        MockHttpServletRequestBuilder postRequest = post("/users/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(Arrays.asList(userPostDTO, takenUserPostDTO)));
+
+        // then
+        mockMvc.perform(postRequest)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].status", is(201)))
+                .andExpect(jsonPath("$[0].user.id", is(user.getId().intValue())))
+                .andExpect(jsonPath("$[0].user.token", is(user.getToken())))
+                .andExpect(jsonPath("$[1].status", is(409)))
+                .andExpect(jsonPath("$[1].username", is("taken")));
+    }
+
     @Test
     public void givenUserId_whenGetUserById_thenReturnUserJson() throws Exception {
         // given
         User user = new User();
         user.setId(1L);
         user.setUsername("firstname@lastname");
-        user.setCreationDate(new Date());
+        // late evening in UTC, the creation day must not depend on the server's zone
+        user.setCreationDate(Instant.parse("2023-03-01T23:30:00Z"));
         user.setStatus(UserStatus.ONLINE);
-        user.setBirthday(new Date());
+        user.setBirthday(LocalDate.of(2000, 12, 24));
 
         given(userService.getUserById(1L)).willReturn(Optional.of(user));
 
         // when
         MockHttpServletRequestBuilder getRequest = get("/users/1").contentType(MediaType.APPLICATION_JSON);
-        SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd");
 
         // then
         mockMvc.perform(getRequest)
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.id", is(user.getId().intValue())))
                 .andExpect(jsonPath("$.username", is(user.getUsername())))
-                .andExpect(jsonPath("$.creationDate", is(formatter.format(user.getCreationDate()))))
-                .andExpect(jsonPath("$.birthday", is(formatter.format(user.getBirthday()))))
+                .andExpect(jsonPath("$.creationDate", is("2023-03-01")))
+                .andExpect(jsonPath("$.birthday", is("2000-12-24")))
                 .andExpect(jsonPath("$.status", is(user.getStatus().toString())));
     }
 
+    @Test
+    public void givenMatchingETag_whenGetUserById_thenReturnNotModified() throws Exception {
+        // given
+        given(userService.getUserVersionTag(1L)).willReturn(Optional.of("1-3-ONLINE"));
+
+        // when
+        MockHttpServletRequestBuilder getRequest = get("/users/1").header("If-None-Match", "\"1-3-ONLINE\"");
+
+        // then
+        mockMvc.perform(getRequest)
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", "W/\"1-3-ONLINE\""));
+        Mockito.verify(userService, Mockito.never()).getUserById(Mockito.any());
+    }
+
+    @Test
+    public void givenStaleETag_whenGetUserById_thenReturnUserWithNewETag() throws Exception {
+        // given
+        User user = new User();
+        user.setId(1L);
+        user.setVersion(4L);
+        user.setUsername("firstname@lastname");
+        user.setStatus(UserStatus.OFFLINE);
+
+        given(userService.getUserVersionTag(1L)).willReturn(Optional.of("1-4-OFFLINE"));
+        given(userService.getUserById(1L)).willReturn(Optional.of(user));
+
+        // when
+        MockHttpServletRequestBuilder getRequest = get("/users/1").header("If-None-Match", "\"1-3-ONLINE\"");
+
+        // then
+        mockMvc.perform(getRequest)
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "W/\"1-4-OFFLINE\""))
+                .andExpect(jsonPath("$.username", is(user.getUsername())));
+    }
+
     @Test
     public void givenInvalidUserId_whenGetUserById_thenThrowNotFound() throws Exception {
         // given
@@ -172,15 +435,15 @@ public class UserControllerTest {
         User user = new User();
         user.setId(1L);
         user.setUsername("firstname@lastname");
-        user.setCreationDate(new Date());
+        user.setCreationDate(Instant.now());
         user.setStatus(UserStatus.ONLINE);
-        user.setBirthday(new Date());
+        user.setBirthday(LocalDate.of(2000, 12, 24));
 
         given(userService.getUserById(1L)).willReturn(Optional.of(user));
 
         UserPostDTO userPostDTO = new UserPostDTO();
         userPostDTO.setUsername("newUsername");
-        userPostDTO.setBirthday(new Date());
+        userPostDTO.setBirthday(LocalDate.of(2001, 1, 31));
 
         // when
         MockHttpServletRequestBuilder putRequest = put("/users/1")
@@ -190,15 +453,18 @@ public class UserControllerTest {
         // then
         mockMvc.perform(putRequest)
                 .andExpect(status().isNoContent());
+        Mockito.verify(userService).update(Mockito.eq(1L),
+                Mockito.argThat(dto -> LocalDate.of(2001, 1, 31).equals(dto.getBirthday())));
     }
 
     @Test
     public void givenInvalidUserId_whenPutUserById_thenThrowNotFound() throws Exception {
         // given
-        given(userService.getUserById(2L)).willReturn(Optional.empty());
+        willThrow(new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found!"))
+                .given(userService).update(Mockito.eq(2L), Mockito.any());
         UserPostDTO userPostDTO = new UserPostDTO();
         userPostDTO.setUsername("newUsername");
-        userPostDTO.setBirthday(new Date());
+        userPostDTO.setBirthday(LocalDate.of(2001, 1, 31));
 
         // when
         MockHttpServletRequestBuilder putRequest = put("/users/2")
@@ -210,10 +476,33 @@ public class UserControllerTest {
                 .andExpect(status().isNotFound());
     }
 
+    @Test
+    public void givenTooManyAttempts_whenLogin_thenReturnTooManyRequests() throws Exception {
+        // given
+        willThrow(new TooManyRequestsException("Too many login attempts, please try again later!", 7))
+                .given(loginRateLimiter).acquire(Mockito.any(), Mockito.eq("testUsername"));
+
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setUsername("testUsername");
+        userPostDTO.setPassword("password");
+
+        // when
+        MockHttpServletRequestBuilder postRequest = post("/login")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(userPostDTO));
+
+        // then
+        mockMvc.perform(postRequest)
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "7"));
+        Mockito.verify(userService, Mockito.never()).authenticate(Mockito.any(), Mockito.any());
+    }
+
     @Test
     public void givenUser_whenLoginWithInvalidUsername_thenThrowUnauthorized() throws Exception {
         // given
-        given(userService.checkIfUsernameExist(Mockito.any())).willReturn(false);
+        given(userService.authenticate(Mockito.any(), Mockito.any()))
+                .willThrow(new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid username!"));
         UserPostDTO userPostDTO = new UserPostDTO();
         userPostDTO.setUsername("newUsername");
         userPostDTO.setPassword("p");
@@ -231,7 +520,8 @@ public class UserControllerTest {
     @Test
     public void givenUser_whenLoginWithInvalidPassword_thenThrowUnauthorized() throws Exception {
         // given
-        given(userService.checkIfPasswordMatch(Mockito.any())).willReturn(false);
+        given(userService.authenticate(Mockito.any(), Mockito.any()))
+                .willThrow(new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid password!"));
         UserPostDTO userPostDTO = new UserPostDTO();
         userPostDTO.setUsername("newUsername");
         userPostDTO.setPassword("p");
@@ -246,6 +536,102 @@ public class UserControllerTest {
                 .andExpect(status().isUnauthorized());
     }
 
+    @Test
+    public void givenUser_whenLoginWithValidCredentials_thenReturnLocalUser() throws Exception {
+        // given
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("testUsername");
+        user.setPassword("p");
+        user.setToken("1");
+        user.setStatus(UserStatus.ONLINE);
+        given(userService.authenticate("testUsername", "p")).willReturn(user);
+
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setUsername("testUsername");
+        userPostDTO.setPassword("p");
+
+        // when
+        MockHttpServletRequestBuilder postRequest = post("/login")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(userPostDTO));
+
+        // then
+        mockMvc.perform(postRequest)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id", is(user.getId().intValue())))
+                .andExpect(jsonPath("$.token", is(user.getToken())));
+        Mockito.verify(userService).login(user);
+    }
+
+    @Test
+    public void givenSignedTokens_whenLogin_thenReturnSignedToken() throws Exception {
+        // given
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("testUsername");
+        user.setToken("1");
+        user.setStatus(UserStatus.ONLINE);
+        given(userService.authenticate("testUsername", "p")).willReturn(user);
+        given(accessTokens.isSigned()).willReturn(true);
+        given(accessTokens.issue(1L)).willReturn("k1.c2lnbmVk");
+
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setUsername("testUsername");
+        userPostDTO.setPassword("p");
+
+        // when
+        MockHttpServletRequestBuilder postRequest = post("/login")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(userPostDTO));
+
+        // then
+        mockMvc.perform(postRequest)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.token", is("k1.c2lnbmVk")));
+    }
+
+    @Test
+    public void givenToken_whenHeartbeat_thenNoContent() throws Exception {
+        // given
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("testUsername");
+        user.setToken("1");
+        user.setStatus(UserStatus.ONLINE);
+        given(userService.getUserByTokenFromPrimary("1")).willReturn(user);
+
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setToken("1");
+
+        // when
+        MockHttpServletRequestBuilder putRequest = put("/heartbeat")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(userPostDTO));
+
+        // then
+        mockMvc.perform(putRequest)
+                .andExpect(status().isNoContent());
+        Mockito.verify(userService).heartbeat(user);
+    }
+
+    @Test
+    public void givenUnknownToken_whenHeartbeat_thenThrowNotFound() throws Exception {
+        // given
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setToken("unknown");
+
+        // when
+        MockHttpServletRequestBuilder putRequest = put("/heartbeat")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(userPostDTO));
+
+        // then
+        mockMvc.perform(putRequest)
+                .andExpect(status().isNotFound());
+        Mockito.verify(userService, Mockito.never()).heartbeat(Mockito.any());
+    }
+
   /**
    * Helper Method to convert userPostDTO into a JSON string such that the input
    * can be processed
@@ -256,7 +642,7 @@ public class UserControllerTest {
    */
   private String asJsonString(final Object object) {
     try {
-      return new ObjectMapper().writeValueAsString(object);
+      return objectMapper.writeValueAsString(object);
     } catch (JsonProcessingException e) {
       throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
           String.format("The request body could not be created.%s", e.toString()));
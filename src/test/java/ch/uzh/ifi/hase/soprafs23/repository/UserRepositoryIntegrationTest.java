@@ -7,7 +7,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 
-import java.util.Date;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -29,7 +31,7 @@ public class UserRepositoryIntegrationTest {
     user.setPassword("password");
     user.setStatus(UserStatus.OFFLINE);
     user.setToken("1");
-    user.setCreationDate(new Date());
+    user.setCreationDate(Instant.now());
 
 
     entityManager.persist(user);
@@ -46,4 +48,54 @@ public class UserRepositoryIntegrationTest {
     assertEquals(found.getPassword(), user.getPassword());
     assertEquals(found.getCreationDate(), user.getCreationDate());
   }
+
+  @Test
+  public void findByUsernameLower_ignoresCase() {
+    // given
+    User user = new User();
+    user.setUsername("FirstName@LastName");
+    user.setPassword("password");
+    user.setStatus(UserStatus.OFFLINE);
+    user.setToken("1");
+    user.setCreationDate(Instant.now());
+
+    entityManager.persist(user);
+    entityManager.flush();
+    entityManager.clear();
+
+    // when
+    User found = userRepository.findByUsernameLower("firstname@lastname");
+
+    // then
+    assertEquals(user.getId(), found.getId());
+    assertEquals("firstname@lastname", found.getUsernameLower());
+  }
+
+  @Test
+  public void lockOnlineLastSeen_onlyOnlineUsers_lastSeenOnlyMovesForward() {
+    // given
+    User online = persistUser("online", "1", UserStatus.ONLINE);
+    User offline = persistUser("offline", "2", UserStatus.OFFLINE);
+    Instant seen = Instant.ofEpochMilli(1_000_000);
+    userRepository.updateLastSeen(Arrays.asList(online.getId(), offline.getId()), seen);
+
+    // when
+    userRepository.updateLastSeen(Collections.singletonList(online.getId()), seen.minusSeconds(1));
+
+    // then
+    assertEquals(Collections.singletonMap(online.getId(), seen),
+        userRepository.lockOnlineLastSeen(Arrays.asList(online.getId(), offline.getId())));
+  }
+
+  private User persistUser(String username, String token, UserStatus status) {
+    User user = new User();
+    user.setUsername(username);
+    user.setPassword("password");
+    user.setStatus(status);
+    user.setToken(token);
+    user.setCreationDate(Instant.now());
+    entityManager.persist(user);
+    entityManager.flush();
+    return user;
+  }
 }
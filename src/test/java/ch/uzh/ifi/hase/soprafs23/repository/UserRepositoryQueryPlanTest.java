@@ -0,0 +1,137 @@
+package ch.uzh.ifi.hase.soprafs23.repository;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * UserRepositoryQueryPlanTest
+ * Runs every UserRepository query, captures the SQL Hibernate generates and
+ * checks the EXPLAIN plan of H2, so a lookup without a matching index (a full
+ * table scan) fails the build. findAll, findAllUserGetDTOs and streamAllOrderedById
+ * read the whole table by design and are not checked.
+ */
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+    + "ch.uzh.ifi.hase.soprafs23.repository.UserRepositoryQueryPlanTest$CapturingStatementInspector")
+public class UserRepositoryQueryPlanTest {
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @BeforeEach
+  public void setup() {
+    CapturingStatementInspector.STATEMENTS.clear();
+  }
+
+  @Test
+  public void findByToken_usesIndex() {
+    assertIndexed(() -> userRepository.findByToken("token"));
+  }
+
+  @Test
+  public void findById_usesIndex() {
+    assertIndexed(() -> userRepository.findById(1L));
+  }
+
+  @Test
+  public void findByUsername_usesIndex() {
+    assertIndexed(() -> userRepository.findByUsername("username"));
+  }
+
+  @Test
+  public void findByUsernameLower_usesIndex() {
+    assertIndexed(() -> userRepository.findByUsernameLower("username"));
+  }
+
+  @Test
+  public void findExistingUsernames_usesIndex() {
+    assertIndexed(() -> userRepository.findExistingUsernames(Arrays.asList("a", "b", "c")));
+  }
+
+  @Test
+  public void findUserGetDTOsByIdGreaterThan_usesIndex() {
+    assertIndexed(() -> userRepository.findUserGetDTOsByIdGreaterThan(10L, PageRequest.of(0, 10)));
+  }
+
+  @Test
+  public void findByStatusAndIdGreaterThan_usesIndex() {
+    assertIndexed(() -> userRepository.findByStatusAndIdGreaterThanOrderByIdAsc(UserStatus.ONLINE, 10L,
+        PageRequest.of(0, 10)));
+  }
+
+  @Test
+  public void findIdsByStatusAndIdGreaterThan_usesIndex() {
+    assertIndexed(() -> userRepository.findIdsByStatusAndIdGreaterThan(UserStatus.ONLINE, 10L,
+        PageRequest.of(0, 10)));
+  }
+
+  @Test
+  public void findUserGetDTOsByIdIn_usesIndex() {
+    assertIndexed(() -> userRepository.findUserGetDTOsByIdIn(Arrays.asList(1L, 2L)));
+  }
+
+  @Test
+  public void findVersionById_usesIndex() {
+    assertIndexed(() -> userRepository.findVersionById(1L));
+  }
+
+  @Test
+  public void updateStatus_usesIndex() {
+    assertIndexed(() -> userRepository.updateStatus(UserStatus.OFFLINE, Arrays.asList(1L, 2L)));
+  }
+
+  @Test
+  public void lockOnlineLastSeen_usesIndex() {
+    assertIndexed(() -> userRepository.lockOnlineLastSeen(Arrays.asList(1L, 2L)));
+  }
+
+  @Test
+  public void updateLastSeen_usesIndex() {
+    assertIndexed(() -> userRepository.updateLastSeen(Arrays.asList(1L, 2L), Instant.now()));
+  }
+
+  private void assertIndexed(Runnable query) {
+    query.run();
+    assertFalse(CapturingStatementInspector.STATEMENTS.isEmpty(), "no statement captured");
+    for (String sql : CapturingStatementInspector.STATEMENTS) {
+      String plan = explain(sql);
+      assertFalse(plan.contains("tableScan"), "full table scan:\n" + plan);
+    }
+  }
+
+  private String explain(String sql) {
+    // the parameters stay unbound, only the plan is of interest
+    return jdbcTemplate.query("EXPLAIN " + sql, ps -> {
+      for (int i = 1; i <= ps.getParameterMetaData().getParameterCount(); i++) {
+        ps.setObject(i, null);
+      }
+    }, (rs, rowNum) -> rs.getString(1)).stream().collect(Collectors.joining("\n"));
+  }
+
+  public static class CapturingStatementInspector implements StatementInspector {
+
+    static final List<String> STATEMENTS = new CopyOnWriteArrayList<>();
+
+    @Override
+    public String inspect(String sql) {
+      STATEMENTS.add(sql);
+      return sql;
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.event.UserChangedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AccessTokensTest {
+
+  private static final long TTL = 60_000;
+
+  private final AtomicLong now = new AtomicLong(1_000_000);
+
+  private AccessTokens accessTokens;
+
+  @BeforeEach
+  public void setup() {
+    accessTokens = new AccessTokens(true, TTL, keys("k2", "k1"), now::get);
+  }
+
+  @Test
+  public void verify_issuedToken_returnsUserId() {
+    String token = accessTokens.issue(42L);
+
+    assertTrue(token.startsWith("k2."));
+    assertEquals(42L, accessTokens.verify(token).longValue());
+  }
+
+  @Test
+  public void verify_tamperedToken_returnsNull() {
+    String token = accessTokens.issue(42L);
+    char[] chars = token.toCharArray();
+    // flip a character of the user id
+    chars[4] = chars[4] == 'A' ? 'B' : 'A';
+
+    assertNull(accessTokens.verify(new String(chars)));
+    assertNull(accessTokens.verify("k2.not-a-token"));
+    assertNull(accessTokens.verify("unknown" + token.substring(2)));
+    assertNull(accessTokens.verify("a-legacy-uuid"));
+  }
+
+  @Test
+  public void verify_expiredToken_returnsNull() {
+    String token = accessTokens.issue(42L);
+
+    now.addAndGet(TTL);
+
+    assertNull(accessTokens.verify(token));
+  }
+
+  @Test
+  public void verify_tokenOfRotatedOutKey_acceptedWhileConfigured() {
+    AccessTokens beforeRotation = new AccessTokens(true, TTL, keys("k1"), now::get);
+    String oldToken = beforeRotation.issue(42L);
+
+    assertEquals(42L, accessTokens.verify(oldToken).longValue());
+    assertNull(new AccessTokens(true, TTL, keys("k2"), now::get).verify(oldToken));
+  }
+
+  @Test
+  public void logoutEvent_revokesEarlierTokensOnly() {
+    String oldToken = accessTokens.issue(42L);
+    String otherUsersToken = accessTokens.issue(7L);
+    now.addAndGet(1);
+
+    accessTokens.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.STATUS, 42L, "user", UserStatus.OFFLINE,
+        Instant.ofEpochMilli(now.get()), true));
+    now.addAndGet(1);
+    String newToken = accessTokens.issue(42L);
+
+    assertNull(accessTokens.verify(oldToken));
+    assertEquals(42L, accessTokens.verify(newToken).longValue());
+    assertEquals(7L, accessTokens.verify(otherUsersToken).longValue());
+  }
+
+  @Test
+  public void loginInSameMillisecondAsLogout_getsValidToken() {
+    String oldToken = accessTokens.issue(42L);
+
+    accessTokens.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.STATUS, 42L, "user", UserStatus.OFFLINE,
+        Instant.ofEpochMilli(now.get()), false));
+    String newToken = accessTokens.issue(42L);
+
+    assertNull(accessTokens.verify(oldToken));
+    assertEquals(42L, accessTokens.verify(newToken).longValue());
+  }
+
+  @Test
+  public void heartbeatExpiryEvent_keepsTokens() {
+    String token = accessTokens.issue(42L);
+    now.addAndGet(1);
+
+    accessTokens.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.EXPIRED, 42L, "user", UserStatus.OFFLINE,
+        Instant.ofEpochMilli(now.get()), false));
+
+    assertEquals(42L, accessTokens.verify(token).longValue());
+    assertEquals(0, accessTokens.getRevocationCount());
+  }
+
+  @Test
+  public void purgeRevocations_dropsRevocationsOfExpiredTokens() {
+    accessTokens.revokeIssuedUntil(42L, now.get());
+    accessTokens.purgeRevocations();
+    assertEquals(1, accessTokens.getRevocationCount());
+
+    now.addAndGet(TTL + 1);
+    accessTokens.purgeRevocations();
+
+    assertEquals(0, accessTokens.getRevocationCount());
+  }
+
+  private static Map<String, byte[]> keys(String... keyIds) {
+    Map<String, byte[]> keys = new LinkedHashMap<>();
+    for (String keyId : keyIds) {
+      byte[] secret = new byte[32];
+      Arrays.fill(secret, (byte) keyId.hashCode());
+      keys.put(keyId, secret);
+    }
+    return keys;
+  }
+}
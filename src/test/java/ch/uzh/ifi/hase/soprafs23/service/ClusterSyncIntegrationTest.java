@@ -0,0 +1,169 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.event.JdbcClusterEventBus;
+import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManagerFactory;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ClusterSyncIntegrationTest
+ * The shared database is the in-memory H2 of the test, the other node is
+ * simulated by writing its rows directly. Polling is triggered by the tests.
+ */
+@SpringBootTest(properties = {
+    "users.cluster.enabled=true",
+    "users.cluster.node-id=node-a",
+    "users.cluster.poll-interval-ms=3600000",
+    "users.cluster.gap-timeout-ms=" + ClusterSyncIntegrationTest.GAP_TIMEOUT_MILLIS
+})
+public class ClusterSyncIntegrationTest {
+
+  static final long GAP_TIMEOUT_MILLIS = 200;
+
+  private static final String INSERT_REMOTE_EVENT =
+      "INSERT INTO USER_EVENT (NODE_ID, TYPE, USER_ID, USERNAME, STATUS, CREATED_AT) VALUES ('node-b', ?, ?, ?, ?, ?)";
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private UsernameIndex usernameIndex;
+
+  @Autowired
+  private JdbcClusterEventBus clusterEventBus;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @BeforeEach
+  public void setup() {
+    userRepository.deleteAll();
+    clusterEventBus.poll();
+  }
+
+  @Test
+  public void createUser_eventWrittenForOtherNodes() {
+    User user = newUser("clusterUser");
+
+    User createdUser = userService.createUser(user);
+
+    Integer events = jdbcTemplate.queryForObject(
+        "SELECT COUNT(*) FROM USER_EVENT WHERE NODE_ID = 'node-a' AND TYPE = 'CREATED' AND USER_ID = ?",
+        Integer.class, createdUser.getId());
+    assertEquals(1, events);
+  }
+
+  @Test
+  public void remoteStatusChange_userEvictedAndIndexUpdated() {
+    User createdUser = userService.createUser(newUser("remoteUser"));
+    Long userId = createdUser.getId();
+    userService.getUserById(userId);
+    assertTrue(entityManagerFactory.getCache().contains(User.class, userId));
+
+    // node b logs the user out
+    jdbcTemplate.update("UPDATE USER SET STATUS = ?, VERSION = VERSION + 1 WHERE ID = ?",
+        UserStatus.OFFLINE.ordinal(), userId);
+    insertRemoteEvent("STATUS", userId, "remoteUser", UserStatus.OFFLINE);
+
+    clusterEventBus.poll();
+
+    assertFalse(entityManagerFactory.getCache().contains(User.class, userId));
+    assertEquals(UserStatus.OFFLINE, userService.getUserById(userId).orElseThrow().getStatus());
+    assertEquals(1, usernameIndex.search("remoteUser", UserStatus.OFFLINE, 10).size());
+  }
+
+  @Test
+  public void remoteEventCommittedLate_stillDelivered() throws Exception {
+    CountDownLatch commit = new CountDownLatch(1);
+    // the slow transaction gets the lower id but commits last
+    Thread slowNode = insertRemoteEventInSlowTransaction(900001L, "lateUser", commit);
+    insertRemoteEvent("CREATED", 900002L, "earlyUser", UserStatus.ONLINE);
+
+    clusterEventBus.poll();
+    assertEquals(1, usernameIndex.search("earlyUser", null, 10).size());
+    assertTrue(usernameIndex.search("lateUser", null, 10).isEmpty());
+
+    commit.countDown();
+    slowNode.join(10_000);
+    clusterEventBus.poll();
+    assertEquals(1, usernameIndex.search("lateUser", null, 10).size());
+  }
+
+  @Test
+  public void remoteEventCommittedAfterGapTimeout_stillDelivered() throws Exception {
+    CountDownLatch commit = new CountDownLatch(1);
+    Thread slowNode = insertRemoteEventInSlowTransaction(900003L, "veryLateUser", commit);
+    insertRemoteEvent("CREATED", 900004L, "punctualUser", UserStatus.ONLINE);
+
+    clusterEventBus.poll();
+    Thread.sleep(GAP_TIMEOUT_MILLIS * 2);
+    // gives up waiting, the cursor moves past the missing id
+    clusterEventBus.poll();
+    assertEquals(1, usernameIndex.search("punctualUser", null, 10).size());
+    assertTrue(usernameIndex.search("veryLateUser", null, 10).isEmpty());
+
+    commit.countDown();
+    slowNode.join(10_000);
+    clusterEventBus.poll();
+    assertEquals(1, usernameIndex.search("veryLateUser", null, 10).size());
+  }
+
+  /**
+   * @return the thread holding the transaction open until commit is counted down
+   */
+  private Thread insertRemoteEventInSlowTransaction(Long userId, String username, CountDownLatch commit)
+      throws InterruptedException {
+    CountDownLatch inserted = new CountDownLatch(1);
+    TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+    Thread slowNode = new Thread(() -> transaction.executeWithoutResult(status -> {
+      insertRemoteEvent("CREATED", userId, username, UserStatus.ONLINE);
+      inserted.countDown();
+      try {
+        commit.await(10, TimeUnit.SECONDS);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }));
+    slowNode.start();
+    assertTrue(inserted.await(10, TimeUnit.SECONDS));
+    return slowNode;
+  }
+
+  private void insertRemoteEvent(String type, Long userId, String username, UserStatus status) {
+    jdbcTemplate.update(INSERT_REMOTE_EVENT, type, userId, username, status.name(), Timestamp.from(Instant.now()));
+  }
+
+  private static User newUser(String username) {
+    User user = new User();
+    user.setUsername(username);
+    user.setPassword("password");
+    return user;
+  }
+}
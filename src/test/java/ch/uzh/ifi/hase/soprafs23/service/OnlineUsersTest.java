@@ -0,0 +1,99 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.event.UserChangedEvent;
+import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OnlineUsersTest {
+
+  @Mock
+  private UserRepository userRepository;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  private OnlineUsers onlineUsers;
+
+  @BeforeEach
+  public void setup() {
+    MockitoAnnotations.openMocks(this);
+    onlineUsers = new OnlineUsers(userRepository, transactionManager);
+  }
+
+  @Test
+  public void onUserChanged_tracksLoginAndLogout() {
+    onlineUsers.onUserChanged(event(UserChangedEvent.Type.CREATED, 1L, UserStatus.ONLINE));
+    onlineUsers.onUserChanged(event(UserChangedEvent.Type.STATUS, 2L, UserStatus.ONLINE));
+    onlineUsers.onUserChanged(event(UserChangedEvent.Type.STATUS, 1L, UserStatus.OFFLINE));
+
+    assertFalse(onlineUsers.isOnline(1L));
+    assertTrue(onlineUsers.isOnline(2L));
+    assertEquals(1, onlineUsers.count());
+  }
+
+  @Test
+  public void intersect_returnsOnlineFriendsOnly() {
+    for (long id = 1; id <= 10; id += 2) {
+      onlineUsers.onUserChanged(event(UserChangedEvent.Type.STATUS, id, UserStatus.ONLINE));
+    }
+
+    assertEquals(Arrays.asList(3L, 7L), onlineUsers.intersect(Arrays.asList(7L, 4L, 3L, 3L, -1L, 1L << 40)));
+    assertTrue(onlineUsers.intersect(Collections.emptyList()).isEmpty());
+  }
+
+  @Test
+  public void page_returnsIdsAfterGivenOne() {
+    for (long id = 1; id <= 10; id++) {
+      onlineUsers.onUserChanged(event(UserChangedEvent.Type.STATUS, id, UserStatus.ONLINE));
+    }
+
+    assertEquals(Arrays.asList(1L, 2L, 3L), onlineUsers.page(null, 3));
+    assertEquals(Arrays.asList(8L, 9L, 10L), onlineUsers.page(7L, 5));
+    assertTrue(onlineUsers.page(10L, 5).isEmpty());
+  }
+
+  @Test
+  public void load_readsOnlineUsersInChunks() {
+    List<Long> firstChunk = new ArrayList<>();
+    for (long id = 1; id <= 10_000; id++) {
+      firstChunk.add(id);
+    }
+    Mockito.when(userRepository.findIdsByStatusAndIdGreaterThan(Mockito.eq(UserStatus.ONLINE), Mockito.eq(0L),
+        Mockito.any())).thenReturn(firstChunk);
+    Mockito.when(userRepository.findIdsByStatusAndIdGreaterThan(Mockito.eq(UserStatus.ONLINE), Mockito.eq(10_000L),
+        Mockito.any())).thenReturn(Collections.singletonList(20_000L));
+
+    onlineUsers.load();
+
+    assertEquals(10_001, onlineUsers.count());
+    assertTrue(onlineUsers.isOnline(20_000L));
+  }
+
+  @Test
+  public void bitmap_millionUsersHalfOnline_staysSmall() {
+    for (long id = 1; id <= 1_000_000; id += 2) {
+      onlineUsers.onUserChanged(event(UserChangedEvent.Type.STATUS, id, UserStatus.ONLINE));
+    }
+
+    assertEquals(500_000, onlineUsers.count());
+    // one bit per id of the range, a HashSet<Long> would need about 25 MB
+    assertTrue(onlineUsers.getSizeInBytes() < 150_000, onlineUsers.getSizeInBytes() + " bytes");
+  }
+
+  private static UserChangedEvent event(UserChangedEvent.Type type, Long userId, UserStatus status) {
+    return new UserChangedEvent(type, userId, "user-" + userId, status);
+  }
+}
@@ -0,0 +1,68 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PasswordHasherTest {
+
+  // lowest bcrypt cost to keep the test fast
+  private final PasswordHasher passwordHasher = new PasswordHasher(4, 2, 16, 5000);
+
+  @AfterEach
+  public void tearDown() {
+    passwordHasher.shutdown();
+  }
+
+  @Test
+  public void hash_matchesOnlyOriginalPassword() {
+    String hash = passwordHasher.hash("password");
+
+    assertNotEquals("password", hash);
+    assertTrue(passwordHasher.matches("password", hash));
+    assertFalse(passwordHasher.matches("wrong", hash));
+    assertFalse(passwordHasher.needsRehash(hash));
+    assertEquals(3, passwordHasher.getHashCount());
+  }
+
+  @Test
+  public void matches_legacyPlaintext_needsRehash() {
+    assertTrue(passwordHasher.matches("password", "password"));
+    assertFalse(passwordHasher.matches("wrong", "password"));
+    assertTrue(passwordHasher.needsRehash("password"));
+  }
+
+  @Test
+  public void needsRehash_lowerCost_true() {
+    PasswordHasher strongerHasher = new PasswordHasher(5, 1, 1, 5000);
+    try {
+      assertTrue(strongerHasher.needsRehash(passwordHasher.hash("password")));
+    }
+    finally {
+      strongerHasher.shutdown();
+    }
+  }
+
+  @Test
+  public void hash_failure_internalServerError() {
+    // bcrypt rejects a null password on the pool thread
+    ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> passwordHasher.hash(null));
+
+    assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, exception.getStatus());
+  }
+
+  @Test
+  public void hashAll_moreThanPoolSize_allHashedInOrder() {
+    List<String> hashes = passwordHasher.hashAll(Arrays.asList("a", "b", "c", "d", "e"));
+
+    assertEquals(5, hashes.size());
+    assertTrue(passwordHasher.matches("a", hashes.get(0)));
+    assertTrue(passwordHasher.matches("e", hashes.get(4)));
+  }
+}
@@ -0,0 +1,126 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.event.UserChangedEvent;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.PresenceDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PresenceBroadcasterTest {
+
+  @Mock
+  private OnlineUsers onlineUsers;
+
+  @Mock
+  private UsernameIndex usernameIndex;
+
+  private final List<Runnable> snapshotTasks = new ArrayList<>();
+
+  private PresenceBroadcaster presenceBroadcaster;
+
+  @BeforeEach
+  public void setup() {
+    MockitoAnnotations.openMocks(this);
+    // snapshots run when the test says so, deltas right away
+    presenceBroadcaster = new PresenceBroadcaster(onlineUsers, usernameIndex, snapshotTasks::add, Runnable::run);
+
+    Mockito.when(onlineUsers.page(null, PresenceBroadcaster.SNAPSHOT_CHUNK_SIZE)).thenReturn(List.of(1L));
+    Mockito.when(onlineUsers.page(1L, PresenceBroadcaster.SNAPSHOT_CHUNK_SIZE)).thenReturn(Collections.emptyList());
+    Mockito.when(usernameIndex.getUsername(1L)).thenReturn("testUsername");
+  }
+
+  @Test
+  public void subscribe_snapshotThenReadyThenDeltas() {
+    RecordingEmitter emitter = new RecordingEmitter();
+    presenceBroadcaster.subscribe(emitter);
+    snapshotTasks.forEach(Runnable::run);
+
+    presenceBroadcaster.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.STATUS, 1L, "testUsername", UserStatus.OFFLINE));
+
+    assertEquals(List.of("snapshot", "ready", "delta"), emitter.names);
+    PresenceDTO snapshotEntry = ((List<?>) emitter.payloads.get(0)).stream()
+        .map(PresenceDTO.class::cast).findFirst().orElseThrow();
+    assertEquals("testUsername", snapshotEntry.getUsername());
+    assertEquals(UserStatus.ONLINE, snapshotEntry.getStatus());
+    PresenceDTO delta = (PresenceDTO) emitter.payloads.get(2);
+    assertEquals(Long.valueOf(1L), delta.getSequence());
+    assertEquals(UserStatus.OFFLINE, delta.getStatus());
+  }
+
+  @Test
+  public void subscribe_deltaDuringSnapshot_deliveredAfterSnapshot() {
+    RecordingEmitter emitter = new RecordingEmitter();
+    presenceBroadcaster.subscribe(emitter);
+
+    presenceBroadcaster.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.CREATED, 2L, "newUsername", UserStatus.ONLINE));
+    assertEquals(0, emitter.names.size());
+
+    snapshotTasks.forEach(Runnable::run);
+
+    assertEquals(List.of("snapshot", "ready", "delta"), emitter.names);
+    assertEquals("newUsername", ((PresenceDTO) emitter.payloads.get(2)).getUsername());
+  }
+
+  @Test
+  public void onUserChanged_onlyQueues_clientFallingBehindDropped() {
+    List<Runnable> sendTasks = new ArrayList<>();
+    presenceBroadcaster = new PresenceBroadcaster(onlineUsers, usernameIndex, Runnable::run, sendTasks::add);
+    RecordingEmitter emitter = new RecordingEmitter();
+    presenceBroadcaster.subscribe(emitter);
+
+    // nobody drains the queue, as if a send to the client blocked
+    for (long i = 0; i <= PresenceBroadcaster.MAX_QUEUED_DELTAS; i++) {
+      presenceBroadcaster.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.STATUS, 1L, "testUsername", UserStatus.ONLINE));
+    }
+
+    assertEquals(List.of("snapshot", "ready"), emitter.names);
+    assertEquals(1, sendTasks.size());
+    assertEquals(0, presenceBroadcaster.getSubscriberCount());
+
+    // the blocked sender completes the emitter once it gets to run again
+    sendTasks.forEach(Runnable::run);
+    assertEquals(List.of("snapshot", "ready"), emitter.names);
+    assertNotNull(emitter.error);
+    assertTrue(emitter.error.getMessage().contains("behind"));
+  }
+
+  /**
+   * records the event names and payloads instead of writing them to a response
+   */
+  private static class RecordingEmitter extends SseEmitter {
+    private final List<String> names = new ArrayList<>();
+    private final List<Object> payloads = new ArrayList<>();
+    private Throwable error;
+
+    @Override
+    public void completeWithError(Throwable ex) {
+      error = ex;
+    }
+
+    @Override
+    public void send(SseEventBuilder builder) {
+      for (ResponseBodyEmitter.DataWithMediaType item : builder.build()) {
+        Object data = item.getData();
+        if (data instanceof String && ((String) data).startsWith("event:")) {
+          names.add(((String) data).substring("event:".length(), ((String) data).indexOf('\n')));
+        }
+        else if (!(data instanceof String)) {
+          payloads.add(data);
+        }
+      }
+    }
+  }
+}
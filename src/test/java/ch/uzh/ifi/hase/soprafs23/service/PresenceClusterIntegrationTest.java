@@ -0,0 +1,66 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * PresenceClusterIntegrationTest
+ * Heartbeats together with the cluster profile, the other node is simulated
+ * by writing its heartbeats to USER.LAST_SEEN directly. The expiry runs on
+ * its schedule with a timeout of one second.
+ */
+@SpringBootTest(properties = {
+    "users.cluster.enabled=true",
+    "users.cluster.node-id=node-a",
+    "users.cluster.poll-interval-ms=3600000",
+    "users.presence.heartbeat.enabled=true",
+    "users.presence.heartbeat.timeout-seconds=1",
+    "users.presence.heartbeat.tick-ms=100"
+})
+public class PresenceClusterIntegrationTest {
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Test
+  public void heartbeatsOnOtherNode_keepUserOnline_untilTheyStop() throws InterruptedException {
+    User user = new User();
+    user.setUsername("heartbeatUser");
+    user.setPassword("password");
+    Long userId = userService.createUser(user).getId();
+
+    // twice the timeout, only node b hears from the user
+    for (int i = 0; i < 8; i++) {
+      jdbcTemplate.update("UPDATE USER SET LAST_SEEN = ? WHERE ID = ?", Timestamp.from(Instant.now()), userId);
+      Thread.sleep(250);
+    }
+    assertEquals(UserStatus.ONLINE, statusOf(userId));
+
+    long deadline = System.currentTimeMillis() + 5000;
+    while (statusOf(userId) == UserStatus.ONLINE && System.currentTimeMillis() < deadline) {
+      Thread.sleep(100);
+    }
+    assertEquals(UserStatus.OFFLINE, statusOf(userId));
+    Integer events = jdbcTemplate.queryForObject(
+        "SELECT COUNT(*) FROM USER_EVENT WHERE NODE_ID = 'node-a' AND TYPE = 'EXPIRED' AND USER_ID = ?",
+        Integer.class, userId);
+    assertEquals(1, events);
+  }
+
+  private UserStatus statusOf(Long userId) {
+    return UserStatus.values()[jdbcTemplate.queryForObject("SELECT STATUS FROM USER WHERE ID = ?", Integer.class,
+        userId)];
+  }
+}
@@ -0,0 +1,231 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.event.UserChangedEvent;
+import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceExpiryTest {
+
+  private static final long TIMEOUT = 90_000;
+
+  private final AtomicLong now = new AtomicLong(1_000_000);
+
+  @Mock
+  private UserRepository userRepository;
+
+  @Mock
+  private PresenceWriteBehind presenceWriteBehind;
+
+  @Mock
+  private ApplicationEventPublisher eventPublisher;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  private PresenceExpiry presenceExpiry;
+
+  @BeforeEach
+  public void setup() {
+    MockitoAnnotations.openMocks(this);
+    // still online and never seen by another node
+    Mockito.when(userRepository.lockOnlineLastSeen(Mockito.anyCollection())).thenAnswer(invocation -> {
+      Map<Long, Instant> online = new HashMap<>();
+      invocation.<Collection<Long>>getArgument(0).forEach(id -> online.put(id, null));
+      return online;
+    });
+    presenceExpiry = new PresenceExpiry(userRepository, presenceWriteBehind, eventPublisher, transactionManager,
+        true, false, TIMEOUT, 1000, now::get);
+  }
+
+  @Test
+  public void tick_noHeartbeatForTimeout_setsUsersOfflineInOneUpdate() {
+    presenceExpiry.touch(1L, "one");
+    presenceExpiry.touch(2L, "two");
+
+    now.addAndGet(TIMEOUT - 1000);
+    presenceExpiry.tick();
+    Mockito.verifyNoInteractions(userRepository);
+
+    now.addAndGet(1000);
+    presenceExpiry.tick();
+
+    Mockito.verify(userRepository).updateStatus(Mockito.eq(UserStatus.OFFLINE),
+        Mockito.<Collection<Long>>argThat(ids -> ids.containsAll(Arrays.asList(1L, 2L)) && ids.size() == 2));
+    Mockito.verify(eventPublisher, Mockito.times(2)).publishEvent(Mockito.<UserChangedEvent>argThat(
+        event -> event.getType() == UserChangedEvent.Type.EXPIRED && event.getStatus() == UserStatus.OFFLINE));
+    assertEquals(0, presenceExpiry.getSessionCount());
+    assertEquals(2, presenceExpiry.getExpiredCount());
+  }
+
+  @Test
+  public void wasExpired_rememberedForOneTimeout() {
+    presenceExpiry.touch(1L, "one");
+    now.addAndGet(TIMEOUT);
+    presenceExpiry.tick();
+    // the own event must not drop the memory of the expiry
+    presenceExpiry.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.EXPIRED, 1L, "one", UserStatus.OFFLINE));
+
+    assertTrue(presenceExpiry.wasExpired(1L));
+
+    now.addAndGet(TIMEOUT);
+    presenceExpiry.tick();
+
+    assertFalse(presenceExpiry.wasExpired(1L));
+  }
+
+  @Test
+  public void wasExpired_loggedOutUser_false() {
+    presenceExpiry.touch(1L, "one");
+
+    presenceExpiry.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.STATUS, 1L, "one", UserStatus.OFFLINE));
+
+    assertFalse(presenceExpiry.wasExpired(1L));
+  }
+
+  @Test
+  public void tick_heartbeatBeforeTimeout_defersExpiry() {
+    presenceExpiry.touch(1L, "one");
+    now.addAndGet(TIMEOUT / 2);
+    presenceExpiry.touch(1L, "one");
+
+    now.addAndGet(TIMEOUT / 2);
+    presenceExpiry.tick();
+    Mockito.verifyNoInteractions(userRepository);
+    assertEquals(1, presenceExpiry.getSessionCount());
+
+    now.addAndGet(TIMEOUT / 2);
+    presenceExpiry.tick();
+    Mockito.verify(userRepository).updateStatus(UserStatus.OFFLINE, Collections.singletonList(1L));
+  }
+
+  @Test
+  public void tick_loggedOutUser_notExpired() {
+    presenceExpiry.touch(1L, "one");
+
+    presenceExpiry.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.STATUS, 1L, "one", UserStatus.OFFLINE));
+    now.addAndGet(TIMEOUT);
+    presenceExpiry.tick();
+
+    Mockito.verifyNoInteractions(userRepository);
+    assertEquals(0, presenceExpiry.getExpiredCount());
+  }
+
+  @Test
+  public void tick_writeBehindEnabled_recordsOfflineStatus() {
+    Mockito.when(presenceWriteBehind.isEnabled()).thenReturn(true);
+    presenceExpiry.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.STATUS, 1L, "one", UserStatus.ONLINE));
+
+    now.addAndGet(TIMEOUT);
+    presenceExpiry.tick();
+
+    Mockito.verify(presenceWriteBehind).record(1L, UserStatus.OFFLINE);
+    Mockito.verifyNoInteractions(userRepository);
+  }
+
+  @Test
+  public void touch_disabled_noSession() {
+    PresenceExpiry disabled = new PresenceExpiry(userRepository, presenceWriteBehind, eventPublisher,
+        transactionManager, false, false, TIMEOUT, 1000, now::get);
+
+    disabled.touch(1L, "one");
+
+    assertEquals(0, disabled.getSessionCount());
+  }
+
+  @Test
+  public void tick_loggedInMeanwhile_notSetOffline() {
+    presenceExpiry.touch(1L, "one");
+    now.addAndGet(TIMEOUT);
+    Mockito.when(userRepository.lockOnlineLastSeen(Collections.singletonList(1L)))
+        .thenReturn(Collections.singletonMap(1L, Instant.ofEpochMilli(now.get())));
+
+    presenceExpiry.tick();
+
+    Mockito.verify(userRepository, Mockito.never()).updateStatus(Mockito.any(), Mockito.anyCollection());
+    Mockito.verifyNoInteractions(eventPublisher);
+    assertEquals(1, presenceExpiry.getSessionCount());
+    assertFalse(presenceExpiry.wasExpired(1L));
+  }
+
+  @Test
+  public void tick_loggedOutMeanwhile_noExpiredEvent() {
+    presenceExpiry.touch(1L, "one");
+    now.addAndGet(TIMEOUT);
+    Mockito.when(userRepository.lockOnlineLastSeen(Collections.singletonList(1L)))
+        .thenReturn(Collections.emptyMap());
+
+    presenceExpiry.tick();
+
+    Mockito.verify(userRepository, Mockito.never()).updateStatus(Mockito.any(), Mockito.anyCollection());
+    Mockito.verifyNoInteractions(eventPublisher);
+  }
+
+  @Test
+  public void tick_clustered_flushesHeartbeatsOncePerTick() {
+    PresenceExpiry clustered = new PresenceExpiry(userRepository, presenceWriteBehind, eventPublisher,
+        transactionManager, true, true, TIMEOUT, 1000, now::get);
+    clustered.touch(1L, "one");
+    clustered.touch(2L, "two");
+    clustered.touch(1L, "one");
+
+    clustered.tick();
+    clustered.tick();
+
+    Mockito.verify(userRepository).updateLastSeen(
+        Mockito.<Collection<Long>>argThat(ids -> ids.containsAll(Arrays.asList(1L, 2L)) && ids.size() == 2),
+        Mockito.eq(Instant.ofEpochMilli(now.get())));
+  }
+
+  @Test
+  public void tick_clustered_seenByOtherNode_resumedFromSharedTime() {
+    PresenceExpiry clustered = new PresenceExpiry(userRepository, presenceWriteBehind, eventPublisher,
+        transactionManager, true, true, TIMEOUT, 1000, now::get);
+    // logged in on another node, the heartbeats go there
+    clustered.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.STATUS, 1L, "one", UserStatus.ONLINE,
+        Instant.ofEpochMilli(now.get()), true));
+    now.addAndGet(TIMEOUT);
+    long seenElsewhere = now.get() - 1000;
+    Mockito.when(userRepository.lockOnlineLastSeen(Collections.singletonList(1L)))
+        .thenReturn(Collections.singletonMap(1L, Instant.ofEpochMilli(seenElsewhere)));
+
+    clustered.tick();
+
+    Mockito.verify(userRepository, Mockito.never()).updateStatus(Mockito.any(), Mockito.anyCollection());
+    assertEquals(1, clustered.getSessionCount());
+
+    // no later heartbeat anywhere
+    now.set(seenElsewhere + TIMEOUT);
+    clustered.tick();
+
+    Mockito.verify(userRepository).updateStatus(UserStatus.OFFLINE, Collections.singletonList(1L));
+    assertTrue(clustered.wasExpired(1L));
+  }
+
+  @Test
+  public void onUserChanged_expiredByOtherNode_rememberedHere() {
+    presenceExpiry.touch(1L, "one");
+
+    presenceExpiry.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.EXPIRED, 1L, "one", UserStatus.OFFLINE,
+        Instant.ofEpochMilli(now.get()), true));
+
+    assertTrue(presenceExpiry.wasExpired(1L));
+    assertEquals(0, presenceExpiry.getSessionCount());
+  }
+}
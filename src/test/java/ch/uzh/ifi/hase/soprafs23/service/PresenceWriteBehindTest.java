@@ -0,0 +1,72 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PresenceWriteBehindTest {
+
+  @Mock
+  private UserRepository userRepository;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  private PresenceWriteBehind presenceWriteBehind;
+
+  @BeforeEach
+  public void setup() {
+    MockitoAnnotations.openMocks(this);
+    presenceWriteBehind = new PresenceWriteBehind(userRepository, transactionManager, true, 2);
+  }
+
+  @Test
+  public void record_statusVisibleBeforeFlush() {
+    presenceWriteBehind.record(1L, UserStatus.ONLINE);
+
+    assertEquals(UserStatus.ONLINE, presenceWriteBehind.statusOf(1L, UserStatus.OFFLINE));
+    assertEquals(UserStatus.OFFLINE, presenceWriteBehind.statusOf(2L, UserStatus.OFFLINE));
+    Mockito.verifyNoInteractions(userRepository);
+  }
+
+  @Test
+  public void flush_transitionsCoalescedIntoOneUpdatePerStatus() {
+    presenceWriteBehind.record(1L, UserStatus.ONLINE);
+    presenceWriteBehind.record(1L, UserStatus.OFFLINE);
+    presenceWriteBehind.record(2L, UserStatus.OFFLINE);
+
+    presenceWriteBehind.flush();
+
+    Mockito.verify(userRepository).updateStatus(Mockito.eq(UserStatus.OFFLINE),
+            Mockito.argThat(ids -> ids.containsAll(Arrays.asList(1L, 2L)) && ids.size() == 2));
+    Mockito.verify(userRepository, Mockito.never()).updateStatus(Mockito.eq(UserStatus.ONLINE), Mockito.any());
+    assertEquals(0, presenceWriteBehind.getPendingCount());
+  }
+
+  @Test
+  public void record_tableFull_flushesOnCallerThread() {
+    presenceWriteBehind.record(1L, UserStatus.ONLINE);
+    presenceWriteBehind.record(2L, UserStatus.ONLINE);
+
+    presenceWriteBehind.record(3L, UserStatus.ONLINE);
+
+    Mockito.verify(userRepository).updateStatus(Mockito.eq(UserStatus.ONLINE), Mockito.anyCollection());
+    assertEquals(1, presenceWriteBehind.getPendingCount());
+  }
+
+  @Test
+  public void flush_nothingRecorded_noUpdate() {
+    presenceWriteBehind.flush();
+
+    Mockito.verifyNoInteractions(userRepository);
+  }
+}
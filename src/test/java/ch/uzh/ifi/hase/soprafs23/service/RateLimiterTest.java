@@ -0,0 +1,60 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RateLimiterTest {
+
+  private final AtomicLong now = new AtomicLong(1_000_000L);
+
+  @Test
+  public void tryAcquire_burstThenSustainedRate() {
+    // 60 per minute -> one per second, 3 at once
+    RateLimiter rateLimiter = new RateLimiter(60, 3, 100, now::get);
+
+    assertEquals(0, rateLimiter.tryAcquire("key"));
+    assertEquals(0, rateLimiter.tryAcquire("key"));
+    assertEquals(0, rateLimiter.tryAcquire("key"));
+    assertEquals(TimeUnit.SECONDS.toNanos(1), rateLimiter.tryAcquire("key"));
+    // other keys have their own bucket
+    assertEquals(0, rateLimiter.tryAcquire("other"));
+
+    now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    assertEquals(0, rateLimiter.tryAcquire("key"));
+    assertTrue(rateLimiter.tryAcquire("key") > 0);
+  }
+
+  @Test
+  public void tryAcquire_fullMap_evictsIdleBucketsFirst() {
+    RateLimiter rateLimiter = new RateLimiter(60, 1, 2, now::get);
+    assertEquals(0, rateLimiter.tryAcquire("a"));
+    now.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+    assertEquals(0, rateLimiter.tryAcquire("b"));
+
+    // "a" is idle, "b" is still refilling and keeps its limit
+    now.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+    assertEquals(0, rateLimiter.tryAcquire("c"));
+    assertEquals(2, rateLimiter.size());
+    assertTrue(rateLimiter.tryAcquire("b") > 0);
+  }
+
+  @Test
+  public void tryAcquire_fullMapOfActiveKeys_evictsOldestInsteadOfRejecting() {
+    RateLimiter rateLimiter = new RateLimiter(60, 1, 10, now::get);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(0, rateLimiter.tryAcquire("flood-" + i));
+      now.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+    }
+
+    // no bucket is idle, a new key still gets in and the oldest bucket makes room
+    assertEquals(0, rateLimiter.tryAcquire("client"));
+    assertEquals(10, rateLimiter.size());
+    assertEquals(0, rateLimiter.tryAcquire("flood-0"));
+    assertTrue(rateLimiter.tryAcquire("flood-9") > 0);
+  }
+}
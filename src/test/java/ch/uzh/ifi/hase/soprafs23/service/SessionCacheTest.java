@@ -0,0 +1,63 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionCacheTest {
+
+  private final AtomicLong now = new AtomicLong();
+
+  private SessionCache sessionCache;
+
+  @BeforeEach
+  public void setup() {
+    sessionCache = new SessionCache(16, 1000, now::get);
+  }
+
+  @Test
+  public void get_cachedToken_hit() {
+    sessionCache.put("token", 1L);
+
+    assertEquals(Long.valueOf(1L), sessionCache.get("token"));
+    assertEquals(1, sessionCache.getHitCount());
+    assertEquals(0, sessionCache.getMissCount());
+  }
+
+  @Test
+  public void get_unknownToken_miss() {
+    assertNull(sessionCache.get("token"));
+    assertEquals(1, sessionCache.getMissCount());
+  }
+
+  @Test
+  public void get_expiredToken_missAndEvicted() {
+    sessionCache.put("token", 1L);
+    now.addAndGet(1000);
+
+    assertNull(sessionCache.get("token"));
+    assertEquals(1, sessionCache.getEvictionCount());
+    assertEquals(0, sessionCache.size());
+  }
+
+  @Test
+  public void invalidate_cachedToken_removed() {
+    sessionCache.put("token", 1L);
+    sessionCache.invalidate("token");
+
+    assertNull(sessionCache.get("token"));
+  }
+
+  @Test
+  public void put_moreTokensThanCapacity_sizeBounded() {
+    for (long i = 0; i < 1000; i++) {
+      sessionCache.put("token" + i, i);
+    }
+
+    assertTrue(sessionCache.size() <= 16);
+    assertEquals(1000 - sessionCache.size(), sessionCache.getEvictionCount());
+  }
+}
@@ -0,0 +1,61 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimingWheelTest {
+
+  @Test
+  public void advance_returnsItemsOnceDeadlinePassed() {
+    TimingWheel<String> wheel = new TimingWheel<>(8, 100, 0);
+    // due in tick 3 (rounded up) and tick 4
+    wheel.schedule("a", 250);
+    wheel.schedule("b", 400);
+
+    assertTrue(wheel.advance(200).isEmpty());
+    assertEquals(Collections.singletonList("a"), wheel.advance(300));
+    assertTrue(wheel.advance(399).isEmpty());
+    assertEquals(Collections.singletonList("b"), wheel.advance(400));
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  public void advance_itemMoreThanOneTurnAhead_keptUntilItsTurn() {
+    TimingWheel<String> wheel = new TimingWheel<>(4, 100, 0);
+    // same slot as tick 1, but three turns later
+    wheel.schedule("late", 1300);
+
+    assertTrue(wheel.advance(1200).isEmpty());
+    assertEquals(Collections.singletonList("late"), wheel.advance(1300));
+  }
+
+  @Test
+  public void advance_afterLongPause_returnsAllOverdueItems() {
+    TimingWheel<String> wheel = new TimingWheel<>(4, 100, 0);
+    wheel.schedule("a", 100);
+    wheel.schedule("b", 200);
+    wheel.schedule("c", 350);
+
+    List<String> due = wheel.advance(10_000);
+
+    assertEquals(3, due.size());
+    assertTrue(due.containsAll(Arrays.asList("a", "b", "c")));
+  }
+
+  @Test
+  public void schedule_pastDeadline_dueOnNextTick() {
+    TimingWheel<String> wheel = new TimingWheel<>(8, 100, 0);
+    wheel.advance(500);
+
+    wheel.schedule("overdue", 100);
+
+    // tick 5 was already visited, the item goes into the next one
+    assertTrue(wheel.advance(500).isEmpty());
+    assertEquals(Collections.singletonList("overdue"), wheel.advance(600));
+  }
+}
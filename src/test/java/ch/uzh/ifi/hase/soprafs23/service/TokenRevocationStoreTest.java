@@ -0,0 +1,72 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.event.UserChangedEvent;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * TokenRevocationStoreTest
+ * A restart is simulated with new AccessTokens sharing the database.
+ */
+@JdbcTest
+public class TokenRevocationStoreTest {
+
+  private static final long TTL = 60_000;
+  private static final Map<String, byte[]> KEYS = Map.of("k1", new byte[32]);
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  private final AtomicLong now = new AtomicLong(1_000_000);
+
+  @Test
+  public void load_afterRestart_logoutStillRevokesTokens() {
+    AccessTokens accessTokens = new AccessTokens(true, TTL, KEYS, now::get);
+    String oldToken = accessTokens.issue(42L);
+    now.addAndGet(1);
+    new TokenRevocationStore(accessTokens, jdbcTemplate, now::get).onUserChanged(logout(42L));
+    now.addAndGet(1);
+    String newToken = accessTokens.issue(42L);
+
+    AccessTokens restarted = new AccessTokens(true, TTL, KEYS, now::get);
+    new TokenRevocationStore(restarted, jdbcTemplate, now::get).load();
+
+    assertNull(restarted.verify(oldToken));
+    assertEquals(42L, restarted.verify(newToken).longValue());
+  }
+
+  @Test
+  public void purge_dropsRevocationsOfExpiredTokens() {
+    AccessTokens accessTokens = new AccessTokens(true, TTL, KEYS, now::get);
+    TokenRevocationStore store = new TokenRevocationStore(accessTokens, jdbcTemplate, now::get);
+    store.onUserChanged(logout(42L));
+    // a remote logout was stored by its own node
+    store.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.STATUS, 7L, "other", UserStatus.OFFLINE,
+        Instant.ofEpochMilli(now.get()), true));
+    assertEquals(1, count());
+
+    now.addAndGet(TTL);
+    store.purge();
+
+    assertEquals(0, count());
+  }
+
+  private UserChangedEvent logout(Long userId) {
+    return new UserChangedEvent(UserChangedEvent.Type.STATUS, userId, "user", UserStatus.OFFLINE,
+        Instant.ofEpochMilli(now.get()), false);
+  }
+
+  private int count() {
+    return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM USER_TOKEN_REVOCATION", Integer.class);
+  }
+}
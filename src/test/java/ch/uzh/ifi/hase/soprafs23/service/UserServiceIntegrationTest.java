@@ -12,7 +12,8 @@ import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.web.server.ResponseStatusException;
 
-import java.text.ParseException;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -38,7 +39,7 @@ public class UserServiceIntegrationTest {
   }
 
   @Test
-  public void createUser_validInputs_success() throws ParseException {
+  public void createUser_validInputs_success() {
     // given
     assertNull(userRepository.findByUsername("testUsername"));
 
@@ -53,13 +54,14 @@ public class UserServiceIntegrationTest {
     assertEquals(testUser.getId(), createdUser.getId());
     assertEquals(testUser.getUsername(), createdUser.getUsername());
     assertEquals(testUser.getPassword(), createdUser.getPassword());
+    assertNotEquals("password", createdUser.getPassword());
     assertNotNull(createdUser.getToken());
     assertNotNull(createdUser.getCreationDate());
     assertEquals(UserStatus.ONLINE, createdUser.getStatus());
   }
 
   @Test
-  public void createUser_duplicateUsername_throwsException() throws ParseException {
+  public void createUser_duplicateUsername_throwsException() {
     assertNull(userRepository.findByUsername("testUsername"));
 
     User testUser = new User();
@@ -77,4 +79,54 @@ public class UserServiceIntegrationTest {
     // check that an error is thrown
     assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser2));
   }
+
+  @Test
+  public void getUsersVersionTag_changesWithEveryChange() {
+    String initialTag = userService.getUsersVersionTag();
+
+    User testUser = new User();
+    testUser.setUsername("testUsername");
+    testUser.setPassword("password");
+    userService.createUser(testUser);
+    String createdTag = userService.getUsersVersionTag();
+    userService.logout(testUser);
+
+    assertNotEquals(initialTag, createdTag);
+    assertNotEquals(createdTag, userService.getUsersVersionTag());
+  }
+
+  @Test
+  public void authenticate_createdUser_hashedPasswordMatches() {
+    User testUser = new User();
+    testUser.setUsername("testUsername");
+    testUser.setPassword("password");
+    userService.createUser(testUser);
+
+    assertEquals(testUser.getId(), userService.authenticate("testUsername", "password").getId());
+    assertThrows(ResponseStatusException.class, () -> userService.authenticate("testUsername", "wrong"));
+  }
+
+  @Test
+  public void createUsers_batchWithTakenUsername_othersCreated() {
+    User existingUser = new User();
+    existingUser.setUsername("taken");
+    existingUser.setPassword("password");
+    userService.createUser(existingUser);
+
+    List<User> newUsers = Arrays.asList(new User(), new User(), new User());
+    for (int i = 0; i < newUsers.size(); i++) {
+      newUsers.get(i).setUsername("user" + i);
+      newUsers.get(i).setPassword("password");
+    }
+    newUsers.get(1).setUsername("taken");
+
+    List<UserCreationResult> results = userService.createUsers(newUsers);
+
+    assertTrue(results.get(0).isCreated());
+    assertFalse(results.get(1).isCreated());
+    assertTrue(results.get(2).isCreated());
+    assertNotNull(results.get(0).getUser().getId());
+    assertNotNull(userRepository.findByUsername("user2"));
+    assertEquals(3, userRepository.count());
+  }
 }
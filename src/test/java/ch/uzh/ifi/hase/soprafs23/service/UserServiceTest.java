@@ -2,20 +2,29 @@ package ch.uzh.ifi.hase.soprafs23.service;
 
 import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.event.UserChangedEvent;
 import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserGetDTO;
 import ch.uzh.ifi.hase.soprafs23.rest.dto.UserPostDTO;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.HttpStatus;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.web.server.ResponseStatusException;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
+import javax.persistence.EntityManager;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -25,6 +34,39 @@ public class UserServiceTest {
   @Mock
   private UserRepository userRepository;
 
+  @Mock
+  private SessionCache sessionCache;
+
+  @Mock
+  private EntityManager entityManager;
+
+  @Mock
+  private PresenceWriteBehind presenceWriteBehind;
+
+  @Mock
+  private ApplicationEventPublisher eventPublisher;
+
+  @Mock
+  private PasswordHasher passwordHasher;
+
+  @Mock
+  private UsernameIndex usernameIndex;
+
+  @Mock
+  private AccessTokens accessTokens;
+
+  @Mock
+  private PresenceExpiry presenceExpiry;
+
+  @Mock
+  private OnlineUsers onlineUsers;
+
+  @Mock
+  private UserListVersion userListVersion;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
   @InjectMocks
   private UserService userService;
 
@@ -44,9 +86,7 @@ public class UserServiceTest {
     testUser2 = new User();
     testUser2.setId(1L);
     testUser2.setUsername("testUsername2");
-    Calendar cal = Calendar.getInstance();
-    cal.set(2023, Calendar.MARCH, 9);
-    testUser2.setBirthday(cal.getTime());
+    testUser2.setBirthday(LocalDate.of(2023, 3, 9));
     testUser2.setPassword("p");
 
     // when -> any object is being saved in the userRepository -> return the dummy
@@ -57,7 +97,7 @@ public class UserServiceTest {
   }
 
   @Test
-  public void createUser_validInputs_success() throws ParseException {
+  public void createUser_validInputs_success() {
     // when -> any object is being saved in the userRepository -> return the dummy
     // testUser
     User createdUser = userService.createUser(testUser1);
@@ -72,7 +112,7 @@ public class UserServiceTest {
   }
 
   @Test
-  public void createUser_duplicateName_throwsException() throws ParseException {
+  public void createUser_duplicateName_throwsException() {
     // given -> a first user has already been created
     userService.createUser(testUser1);
 
@@ -85,7 +125,7 @@ public class UserServiceTest {
   }
 
   @Test
-  public void createUser_duplicateInputs_throwsException() throws ParseException {
+  public void createUser_duplicateInputs_throwsException() {
     // given -> a first user has already been created
     userService.createUser(testUser1);
 
@@ -97,26 +137,279 @@ public class UserServiceTest {
     assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser1));
   }
 
+  @Test
+  public void getUserByToken_cacheMiss_fillsCache() {
+    testUser1.setToken("token");
+    Mockito.when(userRepository.findByToken("token")).thenReturn(testUser1);
+
+    User foundUser = userService.getUserByToken("token");
+
+    assertEquals(testUser1, foundUser);
+    Mockito.verify(sessionCache).put("token", testUser1.getId());
+  }
+
+  @Test
+  public void getUserByToken_cacheHit_skipsFindByToken() {
+    testUser1.setToken("token");
+    Mockito.when(sessionCache.get("token")).thenReturn(testUser1.getId());
+    Mockito.when(userRepository.findById(testUser1.getId())).thenReturn(Optional.of(testUser1));
+
+    User foundUser = userService.getUserByToken("token");
+
+    assertEquals(testUser1, foundUser);
+    Mockito.verify(userRepository, Mockito.never()).findByToken(Mockito.any());
+  }
+
+  @Test
+  public void getUserByToken_signedToken_noTokenLookup() {
+    Mockito.when(accessTokens.isSigned()).thenReturn(true);
+    Mockito.when(accessTokens.verify("k1.signed")).thenReturn(testUser1.getId());
+    Mockito.when(userRepository.findById(testUser1.getId())).thenReturn(Optional.of(testUser1));
+
+    User foundUser = userService.getUserByToken("k1.signed");
+
+    assertEquals(testUser1, foundUser);
+    Mockito.verify(userRepository, Mockito.never()).findByToken(Mockito.any());
+    Mockito.verifyNoInteractions(sessionCache);
+  }
+
+  @Test
+  public void getUserByToken_invalidSignedToken_returnsNull() {
+    Mockito.when(accessTokens.isSigned()).thenReturn(true);
+    Mockito.when(accessTokens.verify("k1.forged")).thenReturn(null);
+
+    assertNull(userService.getUserByToken("k1.forged"));
+    Mockito.verify(userRepository, Mockito.never()).findById(Mockito.any());
+  }
+
+  @Test
+  public void logout_invalidatesCachedToken() {
+    testUser1.setToken("token");
+    testUser1.setStatus(UserStatus.ONLINE);
+
+    userService.logout(testUser1);
+
+    assertEquals(UserStatus.OFFLINE, testUser1.getStatus());
+    Mockito.verify(sessionCache).invalidate("token");
+    Mockito.verify(eventPublisher).publishEvent(Mockito.<UserChangedEvent>argThat(
+            event -> event.getType() == UserChangedEvent.Type.STATUS && event.getStatus() == UserStatus.OFFLINE));
+  }
+
+  @Test
+  public void getUsersByStatus_online_readsOnlyOnlineRows() {
+    Mockito.when(onlineUsers.page(null, UserService.MAX_PAGE_SIZE)).thenReturn(Arrays.asList(1L, 4L));
+    UserGetDTO user = new UserGetDTO(1L, "testUsername", null, Instant.now(), UserStatus.OFFLINE);
+    Mockito.when(userRepository.findUserGetDTOsByIdIn(Arrays.asList(1L, 4L)))
+        .thenReturn(Collections.singletonList(user));
+
+    List<UserGetDTO> users = userService.getUsers(UserStatus.ONLINE, null, UserService.MAX_PAGE_SIZE);
+
+    assertEquals(1, users.size());
+    // written by the write-behind later
+    assertEquals(UserStatus.ONLINE, users.get(0).getStatus());
+    Mockito.verify(userRepository, Mockito.never()).findAllUserGetDTOs();
+    assertThrows(ResponseStatusException.class, () -> userService.getUsers(UserStatus.OFFLINE, null, 10));
+  }
+
+  @Test
+  public void heartbeat_loggedOutUser_rejected() {
+    testUser1.setStatus(UserStatus.OFFLINE);
+
+    ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+        () -> userService.heartbeat(testUser1));
+
+    assertEquals(HttpStatus.UNAUTHORIZED, exception.getStatus());
+    assertEquals(UserStatus.OFFLINE, testUser1.getStatus());
+    Mockito.verify(eventPublisher, Mockito.never()).publishEvent(Mockito.any(Object.class));
+  }
+
+  @Test
+  public void heartbeat_onlineUser_defersExpiry() {
+    testUser1.setStatus(UserStatus.ONLINE);
+
+    userService.heartbeat(testUser1);
+
+    Mockito.verify(presenceExpiry).touch(1L, "testUsername");
+    Mockito.verify(eventPublisher, Mockito.never()).publishEvent(Mockito.any(Object.class));
+  }
+
+  @Test
+  public void heartbeat_expiredUser_loggedInAgain() {
+    testUser1.setStatus(UserStatus.OFFLINE);
+    Mockito.when(presenceExpiry.wasExpired(1L)).thenReturn(true);
+
+    userService.heartbeat(testUser1);
+
+    assertEquals(UserStatus.ONLINE, testUser1.getStatus());
+    Mockito.verify(eventPublisher).publishEvent(Mockito.<UserChangedEvent>argThat(
+            event -> event.getType() == UserChangedEvent.Type.STATUS && event.getStatus() == UserStatus.ONLINE));
+  }
+
+  @Test
+  public void createUser_passwordHashed() {
+    Mockito.when(passwordHasher.hash("p")).thenReturn("hashed");
+
+    User createdUser = userService.createUser(testUser1);
+
+    assertEquals("hashed", createdUser.getPassword());
+  }
+
+  @Test
+  public void authenticate_validCredentials_singleLookup() {
+    Mockito.when(userRepository.findByUsername("testUsername")).thenReturn(testUser1);
+    Mockito.when(passwordHasher.matches("p", "p")).thenReturn(true);
+
+    User authenticatedUser = userService.authenticate("testUsername", "p");
+
+    assertEquals(testUser1, authenticatedUser);
+    Mockito.verify(userRepository, Mockito.times(1)).findByUsername("testUsername");
+  }
+
+  @Test
+  public void authenticate_legacyPassword_rehashed() {
+    Mockito.when(userRepository.findByUsername("testUsername")).thenReturn(testUser1);
+    Mockito.when(passwordHasher.matches("p", "p")).thenReturn(true);
+    Mockito.when(passwordHasher.needsRehash("p")).thenReturn(true);
+    Mockito.when(passwordHasher.hash("p")).thenReturn("hashed");
+
+    User authenticatedUser = userService.authenticate("testUsername", "p");
+
+    assertEquals("hashed", authenticatedUser.getPassword());
+  }
+
+  @Test
+  public void authenticate_unknownUsername_throwsException() {
+    assertThrows(ResponseStatusException.class, () -> userService.authenticate("unknown", "p"));
+  }
+
+  @Test
+  public void authenticate_wrongPassword_throwsException() {
+    Mockito.when(userRepository.findByUsername("testUsername")).thenReturn(testUser1);
+
+    assertThrows(ResponseStatusException.class, () -> userService.authenticate("testUsername", "wrong"));
+  }
+
+  @Test
+  public void createUsers_takenAndDuplicateUsernames_rejectedPerItem() {
+    User takenUser = new User();
+    takenUser.setUsername("taken");
+    takenUser.setPassword("p");
+    User newUser = new User();
+    newUser.setUsername("new");
+    newUser.setPassword("p");
+    User duplicateUser = new User();
+    duplicateUser.setUsername("new");
+    duplicateUser.setPassword("p");
+    User invalidUser = new User();
+    invalidUser.setUsername("invalid");
+
+    Mockito.when(userRepository.findExistingUsernames(Mockito.any()))
+            .thenReturn(Collections.singletonList("taken"));
+    Mockito.when(passwordHasher.hashAll(Collections.singletonList("p")))
+            .thenReturn(Collections.singletonList("hashed"));
+
+    List<UserCreationResult> results = userService.createUsers(
+            Arrays.asList(takenUser, newUser, duplicateUser, invalidUser));
+
+    // one uniqueness query for the whole batch, one insert chunk
+    Mockito.verify(userRepository, Mockito.times(1)).findExistingUsernames(Mockito.any());
+    Mockito.verify(userRepository, Mockito.times(1)).saveAll(Collections.singletonList(newUser));
+    Mockito.verify(userRepository, Mockito.never()).findByUsername(Mockito.any());
+
+    assertEquals(4, results.size());
+    assertFalse(results.get(0).isCreated());
+    assertEquals(HttpStatus.CONFLICT, results.get(0).getStatus());
+    assertTrue(results.get(1).isCreated());
+    assertEquals(UserStatus.ONLINE, results.get(1).getUser().getStatus());
+    assertNotNull(results.get(1).getUser().getToken());
+    assertEquals("hashed", results.get(1).getUser().getPassword());
+    assertEquals(HttpStatus.CONFLICT, results.get(2).getStatus());
+    assertEquals(HttpStatus.BAD_REQUEST, results.get(3).getStatus());
+  }
+
+  @Test
+  public void createUsers_passwordsHashedOutsideTransactions() {
+    User newUser = new User();
+    newUser.setUsername("new");
+    newUser.setPassword("p");
+    Mockito.when(passwordHasher.hashAll(Collections.singletonList("p")))
+            .thenReturn(Collections.singletonList("hashed"));
+
+    userService.createUsers(Collections.singletonList(newUser));
+
+    // uniqueness check, commit, hashing, then a new transaction for the inserts
+    InOrder inOrder = Mockito.inOrder(transactionManager, userRepository, passwordHasher);
+    inOrder.verify(userRepository).findExistingUsernames(Mockito.any());
+    inOrder.verify(transactionManager).commit(Mockito.any());
+    inOrder.verify(passwordHasher).hashAll(Mockito.any());
+    inOrder.verify(transactionManager).getTransaction(Mockito.any());
+    inOrder.verify(userRepository).saveAll(Mockito.any());
+    inOrder.verify(transactionManager).commit(Mockito.any());
+  }
+
+  @Test
+  public void createUsers_emptyBatch_throwsException() {
+    assertThrows(ResponseStatusException.class, () -> userService.createUsers(Collections.emptyList()));
+  }
+
+  @Test
+  public void login_writeBehind_recordedAndDetached() {
+    Mockito.when(presenceWriteBehind.isEnabled()).thenReturn(true);
+    testUser1.setStatus(UserStatus.OFFLINE);
+
+    userService.login(testUser1);
+
+    assertEquals(UserStatus.ONLINE, testUser1.getStatus());
+    Mockito.verify(presenceWriteBehind).record(testUser1.getId(), UserStatus.ONLINE);
+    Mockito.verify(entityManager).detach(testUser1);
+  }
+
+  @Test
+  public void getUserById_writeBehind_showsPendingStatus() {
+    Mockito.when(presenceWriteBehind.isEnabled()).thenReturn(true);
+    Mockito.when(presenceWriteBehind.statusOf(testUser1.getId(), UserStatus.OFFLINE)).thenReturn(UserStatus.ONLINE);
+    testUser1.setStatus(UserStatus.OFFLINE);
+    Mockito.when(userRepository.findById(testUser1.getId())).thenReturn(Optional.of(testUser1));
+
+    User foundUser = userService.getUserById(testUser1.getId()).get();
+
+    assertEquals(UserStatus.ONLINE, foundUser.getStatus());
+  }
+
+  @Test
+  public void getUsers_writeBehindEnabled_overlaysPendingStatusOnProjection() {
+    UserGetDTO projected = new UserGetDTO(7L, "user", null, Instant.now(), UserStatus.OFFLINE);
+    Mockito.when(presenceWriteBehind.isEnabled()).thenReturn(true);
+    Mockito.when(presenceWriteBehind.statusOf(7L, UserStatus.OFFLINE)).thenReturn(UserStatus.ONLINE);
+    Mockito.when(userRepository.findAllUserGetDTOs()).thenReturn(new ArrayList<>(List.of(projected)));
+
+    List<UserGetDTO> users = userService.getUsers();
+
+    assertEquals(UserStatus.ONLINE, users.get(0).getStatus());
+    Mockito.verify(userRepository, Mockito.never()).findAll();
+  }
+
+  @Test
+  public void getUsers_limitOutOfRange_throwsException() {
+    assertThrows(ResponseStatusException.class, () -> userService.getUsers(null, 0));
+    assertThrows(ResponseStatusException.class, () -> userService.getUsers(null, UserService.MAX_PAGE_SIZE + 1));
+  }
+
     @Test
-    public void updateUser_validUserAndUpdate_success() throws ParseException {
+    public void updateUser_validUserAndUpdate_success() {
         // testUser
         User createdUser = userService.createUser(testUser1);
         UserPostDTO updatedUser = new UserPostDTO();
         updatedUser.setUsername("testUsername2");
-        Calendar cal = Calendar.getInstance();
-        cal.set(2023, Calendar.MARCH, 9);
-        updatedUser.setBirthday(cal.getTime());
+        updatedUser.setBirthday(LocalDate.of(2023, 3, 9));
 
         // then
         Mockito.verify(userRepository, Mockito.times(1)).save(Mockito.any());
         Mockito.when(userRepository.findById(Mockito.any())).thenReturn(Optional.ofNullable(createdUser));
         userService.update(1L,updatedUser);
-        SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd");
 
         assertEquals(testUser2.getUsername(), createdUser.getUsername());
-        String expected = formatter.format(testUser2.getBirthday());
-        String actual = formatter.format(createdUser.getBirthday());
-        assertEquals(expected,actual);
+        assertEquals(testUser2.getBirthday(), createdUser.getBirthday());
     }
 
 }
@@ -0,0 +1,113 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.event.UserChangedEvent;
+import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UsernameIndexTest {
+
+  private UsernameIndex usernameIndex;
+
+  @BeforeEach
+  public void setup() {
+    usernameIndex = new UsernameIndex(Mockito.mock(UserRepository.class), Mockito.mock(PlatformTransactionManager.class));
+    usernameIndex.put(1L, "Alice", UserStatus.ONLINE);
+    usernameIndex.put(2L, "alfred", UserStatus.OFFLINE);
+    usernameIndex.put(3L, "ALBERT", UserStatus.ONLINE);
+    usernameIndex.put(4L, "bob", UserStatus.ONLINE);
+  }
+
+  @Test
+  public void search_prefixIgnoresCase_sortedByName() {
+    assertEquals(List.of("ALBERT", "alfred", "Alice"), usernames(usernameIndex.search("AL", null, 10)));
+    assertEquals(List.of("bob"), usernames(usernameIndex.search("b", null, 10)));
+    assertTrue(usernameIndex.search("x", null, 10).isEmpty());
+  }
+
+  @Test
+  public void search_filtersStatus_andStopsAtLimit() {
+    assertEquals(List.of("ALBERT", "Alice"), usernames(usernameIndex.search("al", UserStatus.ONLINE, 10)));
+    assertEquals(List.of("ALBERT", "Alice"), usernames(usernameIndex.search("", UserStatus.ONLINE, 2)));
+  }
+
+  @Test
+  public void onUserChanged_renameAndStatus_updatesIndex() {
+    usernameIndex.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.UPDATED, 4L, "carol", UserStatus.ONLINE));
+    usernameIndex.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.STATUS, 1L, "Alice", UserStatus.OFFLINE));
+
+    assertTrue(usernameIndex.search("bob", null, 10).isEmpty());
+    assertEquals(List.of("carol"), usernames(usernameIndex.search("car", null, 10)));
+    assertEquals(List.of("ALBERT"), usernames(usernameIndex.search("al", UserStatus.ONLINE, 10)));
+    assertEquals(4, usernameIndex.size());
+  }
+
+  @Test
+  public void onUserChanged_statusAfterRename_keepsNewName() {
+    usernameIndex.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.UPDATED, 4L, "carol", UserStatus.ONLINE));
+    usernameIndex.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.STATUS, 4L, "bob", UserStatus.OFFLINE));
+
+    assertTrue(usernameIndex.search("bob", null, 10).isEmpty());
+    assertEquals(List.of("carol"), usernames(usernameIndex.search("car", UserStatus.OFFLINE, 10)));
+    assertTrue(usernameIndex.search("car", UserStatus.ONLINE, 10).isEmpty());
+  }
+
+  @Test
+  public void onUserChanged_oldNameTakenFirst_noStaleStatusEntry() {
+    // user 2 takes the name of user 4 before the rename of user 4 is applied
+    usernameIndex.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.UPDATED, 2L, "bob", UserStatus.OFFLINE));
+    usernameIndex.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.UPDATED, 4L, "carol", UserStatus.ONLINE));
+
+    assertEquals(List.of(2L), ids(usernameIndex.search("bob", null, 10)));
+    assertEquals(List.of(2L), ids(usernameIndex.search("bob", UserStatus.OFFLINE, 10)));
+    assertTrue(usernameIndex.search("bob", UserStatus.ONLINE, 10).isEmpty());
+  }
+
+  @Test
+  public void search_byStatus_onlyVisitsThatStatus() {
+    for (long id = 10; id < 1010; id++) {
+      usernameIndex.put(id, "al-offline-" + id, UserStatus.OFFLINE);
+    }
+
+    assertEquals(List.of("ALBERT", "Alice"), usernames(usernameIndex.search("a", UserStatus.ONLINE, 10)));
+    assertEquals(10, usernameIndex.search("a", UserStatus.OFFLINE, 10).size());
+  }
+
+  @Test
+  public void put_concurrentRenames_leaveOneName() throws Exception {
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      int thread = t;
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 1000; i++) {
+          usernameIndex.put(4L, "name-" + thread + "-" + i, i % 2 == 0 ? UserStatus.ONLINE : UserStatus.OFFLINE);
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(1, usernameIndex.search("name-", null, 10).size());
+    assertEquals(1, usernameIndex.search("name-", UserStatus.ONLINE, 10).size()
+        + usernameIndex.search("name-", UserStatus.OFFLINE, 10).size());
+  }
+
+  private static List<Long> ids(List<UsernameIndex.Entry> entries) {
+    return entries.stream().map(UsernameIndex.Entry::getId).collect(Collectors.toList());
+  }
+
+  private static List<String> usernames(List<UsernameIndex.Entry> entries) {
+    return entries.stream().map(UsernameIndex.Entry::getUsername).collect(Collectors.toList());
+  }
+}